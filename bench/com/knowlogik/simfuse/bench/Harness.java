@@ -0,0 +1,128 @@
+package com.knowlogik.simfuse.bench;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+
+/**
+ * Minimal throughput harness: warmup iterations, then timed iterations of a fixed wall-clock length,
+ * reporting ops/s with a 99.9% interval over iterations and the bytes allocated per operation by the
+ * measuring thread (HotSpot's per-thread allocation counter, as JMH's GC profiler uses).
+ */
+public class Harness {
+    
+    /**
+     * one benchmarked operation; the result is consumed so the work cannot be optimized away
+     */
+    public interface Op {
+        
+        long run() throws Exception;
+    }
+    
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+    
+    private final PrintStream out;
+    private final int warmups;
+    private final int iterations;
+    private final long iterationNanos;
+    private final DecimalFormat decFmt = new DecimalFormat("###,##0.###");
+    
+    private long sink;
+    
+    public Harness(PrintStream out, int warmups, int iterations, long iterationMillis) {
+        this.out = out;
+        this.warmups = warmups;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+    }
+    
+    public void header() {
+        out.println("benchmark\tparam\tcnt\tops/s\terror\tms/op\tB/op\tMB/s");
+    }
+    
+    public void measure(String name, String param, Op op) throws Exception {
+        for (int i = 0; i < warmups; ++i)
+            iteration(op);
+        
+        double[] rates = new double[iterations];
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        
+        for (int i = 0; i < iterations; ++i) {
+            long bytesBefore = allocated();
+            long[] r = iteration(op);
+            bytes += allocated() - bytesBefore;
+            
+            ops += r[0];
+            nanos += r[1];
+            rates[i] = r[0] * 1e9 / r[1];
+        }
+        
+        double mean = 0;
+        for (double r : rates)
+            mean += r;
+        mean /= iterations;
+        
+        double var = 0;
+        for (double r : rates)
+            var += (r - mean) * (r - mean);
+        var = iterations > 1 ? var / (iterations - 1) : 0;
+        
+        // 3.29 ~ two sided 99.9% normal quantile; close enough for five or more iterations
+        double error = 3.29 * Math.sqrt(var / iterations);
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append('\t').append(param).append('\t').append(iterations);
+        sb.append('\t').append(decFmt.format(mean)).append('\t').append(decFmt.format(error));
+        sb.append('\t').append(decFmt.format(nanos / 1e6 / ops));
+        sb.append('\t').append(THREADS == null ? "n/a" : decFmt.format((double) bytes / ops));
+        sb.append('\t').append(THREADS == null ? "n/a" : decFmt.format(bytes / 1048576.0 / (nanos / 1e9)));
+        out.println(sb);
+        out.flush();
+    }
+    
+    /**
+     * @return {ops, nanos}; runs whole operations until the iteration time is used up
+     */
+    private long[] iteration(Op op) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        
+        do {
+            sink += op.run();
+            ops++;
+            now = System.nanoTime();
+        }
+        while (now - start < iterationNanos);
+        
+        return new long[] { ops, now - start };
+    }
+    
+    /** keeps results observable */
+    public long getSink() {
+        return sink;
+    }
+    
+    private static long allocated() {
+        if (THREADS == null)
+            return 0;
+        
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        
+        com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+        if (!b.isThreadAllocatedMemorySupported())
+            return null;
+        
+        b.setThreadAllocatedMemoryEnabled(true);
+        return b;
+    }
+}
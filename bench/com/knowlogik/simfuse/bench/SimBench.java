@@ -0,0 +1,272 @@
+package com.knowlogik.simfuse.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import prefuse.data.Graph;
+import prefuse.data.io.GraphMLReader;
+
+import com.knowlogik.simfuse.PrefuseGraphs;
+import com.knowlogik.simfuse.engine.BitParallelEngine;
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeEngine;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeState;
+import com.knowlogik.simfuse.engine.Propagation;
+import com.knowlogik.simfuse.engine.RandomStream;
+import com.knowlogik.simfuse.gen.NetworkGenerator;
+import com.knowlogik.simfuse.io.GraphMLLoader;
+import com.knowlogik.simfuse.io.GraphMLWriter;
+import com.knowlogik.simfuse.io.GraphSnapshot;
+
+/**
+ * Benchmarks for the load, setup and cascade paths, over every GraphML file in the data directory
+ * and {@link NetworkGenerator} graphs of the given families and sizes.
+ * 
+ * <pre>
+ * SimBench [--data test/data] [--synthetic 10000,100000] [--families erdos_rand,scale_pref]
+ *          [--warmup 5] [--iterations 5] [--time 1000] [--filter name]
+ * </pre>
+ * 
+ * <ul>
+ * <li><b>load.prefuse</b> - prefuse GraphMLReader plus the bridge to the engine graph, as the GUI
+ * loads (from memory, so disk speed does not count)</li>
+ * <li><b>load.stax</b> - the batch StAX loader</li>
+ * <li><b>load.snapshot</b> - opening a binary snapshot</li>
+ * <li><b>setup.layers</b> - bridging an already read prefuse graph, which is where dataSetup counts
+ * nodes and edges per layer</li>
+ * <li><b>tick</b> - resetting the state, failing the seed and running the first tick</li>
+ * <li><b>cascade</b> - one full trial to completion</li>
+ * <li><b>trials64</b>, <b>bit-parallel</b> - 64 trials one after the other, and the same 64 as one
+ * {@link BitParallelEngine} batch; the <b>.low</b> variants use 10/10/20 instead of 30/30/80, where
+ * cascades stay small and overlap little between trials</li>
+ * </ul>
+ * 
+ * Output is one tab separated row per benchmark and input, ready to diff between versions.
+ */
+public class SimBench {
+    
+    private static final Propagation PROPAGATION = new Propagation(30, 30, 80);
+    private static final Propagation LOW = new Propagation(10, 10, 20);
+    
+    public static void main(String[] args) throws Exception {
+        String data = "test/data";
+        int[] synthetic = { 10000, 100000 };
+        String[] families = { "erdos_rand", "scale_pref" };
+        int warmup = 5;
+        int iterations = 5;
+        long time = 1000;
+        String filter = "";
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String v = args[i + 1];
+            
+            if (name.equals("--data"))
+                data = v;
+            else if (name.equals("--synthetic"))
+                synthetic = parseInts(v);
+            else if (name.equals("--families"))
+                families = v.split(",");
+            else if (name.equals("--warmup"))
+                warmup = Integer.parseInt(v);
+            else if (name.equals("--iterations"))
+                iterations = Integer.parseInt(v);
+            else if (name.equals("--time"))
+                time = Long.parseLong(v);
+            else if (name.equals("--filter"))
+                filter = v;
+            else
+                throw new IllegalArgumentException("unknown option " + name);
+        }
+        
+        Harness harness = new Harness(System.out, warmup, iterations, time);
+        harness.header();
+        
+        File[] files = new File(data).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            
+            for (File f : files) {
+                if (f.getName().endsWith(".graphml"))
+                    run(harness, filter, f.getName(), Files.readAllBytes(f.toPath()));
+            }
+        }
+        
+        for (String family : families) {
+            for (int n : synthetic) {
+                NetworkGenerator generator = NetworkGenerator.forFamily(family, n);
+                generator.setSeed(1);
+                
+                ByteArrayOutputStream graphML = new ByteArrayOutputStream();
+                new GraphMLWriter().write(generator, graphML);
+                run(harness, filter, family + "-" + n, graphML.toByteArray());
+            }
+        }
+        
+        System.err.println("sink: " + harness.getSink());
+    }
+    
+    private static void run(Harness harness, String filter, String param, final byte[] graphML) throws Exception {
+        final CascadeGraph graph = new GraphMLLoader().load(new ByteArrayInputStream(graphML));
+        final Graph prefuseGraph = new GraphMLReader().readGraph(new ByteArrayInputStream(graphML));
+        
+        final File snapshot = File.createTempFile("simbench", ".sfg");
+        snapshot.deleteOnExit();
+        GraphSnapshot.write(graph, snapshot.getPath());
+        
+        final int seed = maxDegreeNode(graph, 0);
+        final CascadeEngine engine = new CascadeEngine(graph, PROPAGATION);
+        final CascadeState state = new CascadeState(graph);
+        
+        List<String> names = new ArrayList<>();
+        List<Harness.Op> ops = new ArrayList<>();
+        
+        names.add("load.prefuse");
+        ops.add(new Harness.Op() {
+            
+            @Override
+            public long run() throws Exception {
+                return PrefuseGraphs.toCascadeGraph(new GraphMLReader().readGraph(new ByteArrayInputStream(graphML))).getEdgeCount();
+            }
+        });
+        
+        names.add("load.stax");
+        ops.add(new Harness.Op() {
+            
+            @Override
+            public long run() throws Exception {
+                return new GraphMLLoader().load(new ByteArrayInputStream(graphML)).getEdgeCount();
+            }
+        });
+        
+        names.add("load.snapshot");
+        ops.add(new Harness.Op() {
+            
+            @Override
+            public long run() throws Exception {
+                return GraphSnapshot.open(snapshot.getPath()).getEdgeCount();
+            }
+        });
+        
+        names.add("setup.layers");
+        ops.add(new Harness.Op() {
+            
+            @Override
+            public long run() throws Exception {
+                CascadeGraph g = PrefuseGraphs.toCascadeGraph(prefuseGraph);
+                return g.getNodeLayerSize(0) + g.getEdgeLayerSize(2);
+            }
+        });
+        
+        names.add("tick");
+        ops.add(new Harness.Op() {
+            
+            private long trial = 0;
+            
+            @Override
+            public long run() {
+                state.clear();
+                state.getRandom().setState(RandomStream.trialSeed(1, trial++));
+                state.fail(seed);
+                return engine.step(state);
+            }
+        });
+        
+        names.add("cascade");
+        ops.add(new Harness.Op() {
+            
+            private long trial = 0;
+            
+            @Override
+            public long run() {
+                state.clear();
+                state.getRandom().setState(RandomStream.trialSeed(1, trial++));
+                state.fail(seed);
+                while (!state.isDone())
+                    engine.step(state);
+                return state.getFailedCount();
+            }
+        });
+        
+        for (final Propagation propagation : new Propagation[] { PROPAGATION, LOW }) {
+            String suffix = propagation == LOW ? ".low" : "";
+            final CascadeEngine scalar = new CascadeEngine(graph, propagation);
+            final BitParallelEngine lanes = new BitParallelEngine(graph, propagation);
+            final CascadeCheckpoint start = CascadeCheckpoint.forSeeds(graph, new int[] { seed });
+            
+            names.add("trials64" + suffix);
+            ops.add(new Harness.Op() {
+                
+                private long trial = 0;
+                
+                @Override
+                public long run() {
+                    long failed = 0;
+                    
+                    for (int lane = 0; lane < BitParallelEngine.LANES; ++lane) {
+                        state.clear();
+                        state.getRandom().setState(RandomStream.trialSeed(1, trial++));
+                        state.fail(seed);
+                        while (!state.isDone())
+                            scalar.step(state);
+                        failed += state.getFailedCount();
+                    }
+                    
+                    return failed;
+                }
+            });
+            
+            names.add("bit-parallel" + suffix);
+            ops.add(new Harness.Op() {
+                
+                private long batch = 0;
+                
+                @Override
+                public long run() {
+                    lanes.restore(start, -1L);
+                    lanes.getRandom().setState(RandomStream.trialSeed(1, batch++));
+                    while (!lanes.isDone())
+                        lanes.step();
+                    
+                    return lanes.getTick();
+                }
+            });
+        }
+        
+        for (int i = 0; i < names.size(); ++i) {
+            if (names.get(i).contains(filter))
+                harness.measure(names.get(i), param, ops.get(i));
+        }
+        
+        snapshot.delete();
+    }
+    
+    private static int maxDegreeNode(CascadeGraph graph, int layer) {
+        int best = 0;
+        
+        for (int i = 0; i < graph.getNodeCount(); ++i) {
+            if (graph.getNodeLayer(i) == layer && (graph.getNodeLayer(best) != layer || graph.getDegree(i) > graph.getDegree(best)))
+                best = i;
+        }
+        
+        return best;
+    }
+    
+    private static int[] parseInts(String spec) {
+        if (spec.isEmpty())
+            return new int[0];
+        
+        String[] tokens = spec.split(",");
+        int[] out = new int[tokens.length];
+        for (int i = 0; i < tokens.length; ++i)
+            out[i] = Integer.parseInt(tokens[i].trim());
+        
+        return out;
+    }
+}
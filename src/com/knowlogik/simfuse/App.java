@@ -3,6 +3,7 @@ package com.knowlogik.simfuse;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
@@ -10,29 +11,40 @@ import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Random;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JSlider;
 import javax.swing.JSplitPane;
+import javax.swing.JToggleButton;
+import javax.swing.ListSelectionModel;
 import javax.swing.SpringLayout;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import prefuse.Constants;
 import prefuse.Display;
 import prefuse.Visualization;
+import prefuse.action.Action;
 import prefuse.action.ActionList;
-import prefuse.action.ItemAction;
 import prefuse.action.RepaintAction;
 import prefuse.action.assignment.ColorAction;
 import prefuse.action.assignment.DataColorAction;
+import prefuse.action.assignment.DataSizeAction;
 import prefuse.action.assignment.SizeAction;
 import prefuse.action.filter.VisibilityFilter;
 import prefuse.action.layout.graph.ForceDirectedLayout;
@@ -44,7 +56,6 @@ import prefuse.controls.NeighborHighlightControl;
 import prefuse.controls.PanControl;
 import prefuse.controls.ZoomControl;
 import prefuse.controls.ZoomToFitControl;
-import prefuse.data.Edge;
 import prefuse.data.Graph;
 import prefuse.data.Node;
 import prefuse.data.Tuple;
@@ -54,7 +65,6 @@ import prefuse.data.expression.parser.ExpressionParser;
 import prefuse.data.io.DataIOException;
 import prefuse.data.io.GraphMLReader;
 import prefuse.data.query.ListModel;
-import prefuse.data.tuple.DefaultTupleSet;
 import prefuse.data.tuple.TupleSet;
 import prefuse.render.DefaultRendererFactory;
 import prefuse.render.LabelRenderer;
@@ -64,6 +74,20 @@ import prefuse.util.ui.JToggleGroup;
 import prefuse.util.ui.UILib;
 import prefuse.visual.VisualItem;
 
+import com.knowlogik.simfuse.analysis.Centrality;
+import com.knowlogik.simfuse.engine.CascadeEngine;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeMetrics;
+import com.knowlogik.simfuse.engine.CascadeRunner;
+import com.knowlogik.simfuse.engine.CascadeSnapshot;
+import com.knowlogik.simfuse.engine.CascadeState;
+import com.knowlogik.simfuse.engine.CascadeTrace;
+import com.knowlogik.simfuse.engine.MutualGiantEngine;
+import com.knowlogik.simfuse.engine.Propagation;
+import com.knowlogik.simfuse.io.CsvResultWriter;
+import com.knowlogik.simfuse.io.ResultSink;
+import com.knowlogik.simfuse.io.TraceReader;
+
 /**
  * Simfuse - interdependent network cascade failure simulator
  * 
@@ -81,10 +105,9 @@ public class App {
     
     private static final String INPUT_FILE = "test/data/scale_pref.graphml";
     
-    // probabilities of propagating failures within net A, within net B, and between nets
-    private static final int PROB_A = 30;
-    private static final int PROB_B = 30;
-    private static final int PROB_AB = 80;
+    // probabilities of propagating failures within a net and between nets
+    private static final int PROB_INTRA = 30;
+    private static final int PROB_INTER = 80;
     
     // display dimensions
     private static final int WIDTH = 1200;
@@ -94,16 +117,16 @@ public class App {
     
     // sim settings
     private static final int STEP_SPEED = 1000;
+    private static final int FRAME_RATE = 30;
+    
+    // trace replay speeds, ticks per second
+    private static final Integer[] REPLAY_SPEEDS = { 1, 2, 5, 10, 30 };
     
     // identifier strings
     private static final String GRAPH = "graph";
     private static final String GRAPH_NODES = "graph.nodes";
     private static final String GRAPH_EDGES = "graph.edges";
     
-    private static final String NETID_A = "A";
-    private static final String NETID_B = "B";
-    private static final String NETID_AB = "AB";
-    
     // window/data vars
     private JFrame frame = null;
     private JPanel rightPanel = null;
@@ -120,40 +143,58 @@ public class App {
     private ForceDirectedLayout fdl = null;
     private boolean runningFDL = false;
     
-    private SimAction simAction = null;
+    private SizeAction nodeSize = null;
+    private DataSizeAction centralitySize = null;
+    
+    // headless cascade engine; the visualization only mirrors its state
+    private CascadeGraph cascadeGraph = null;
+    private CascadeEngine engine = null;
+    private MutualGiantEngine mutualEngine = null;
+    private CascadeState state = null;
+    private CascadeRunner runner = null;
+    
+    // node items by engine row, and the rows hidden so far, so resets only touch what failed
+    private VisualItem[] nodeItems = null;
+    private int[] marked = null;
+    private int markedCount = 0;
+    
+    // per tick metric records, written off the activity thread
+    private ResultSink results = null;
+    private long trial = 0;
+    
+    private FrameAction frameAction = null;
+    private JToggleGroup simToggle = null;
     private boolean runningSim = false;
-    private int ticks = 0;
-    private double countNetA = 0;
-    private double countNetB = 0;
-    private double countEdgesA = 0;
-    private double countEdgesB = 0;
-    private double countEdgesAB = 0;
-    private double failedNetA = 0;
-    private double failedNetB = 0;
-    private double failedEdgesA = 0;
-    private double failedEdgesB = 0;
-    private double failedEdgesAB = 0;
-    private JLabel pcntFailed = null;
-    private JLabel pcntFailedNetA = null;
-    private JLabel pcntFailedNetB = null;
-    private JLabel pcntFailedEdges = null;
-    private JLabel pcntFailedEdgesA = null;
-    private JLabel pcntFailedEdgesB = null;
-    private JLabel pcntFailedEdgesAB = null;
-    
-    private Predicate predNetID_A = null;
-    private Predicate predNetID_B = null;
-    private Predicate predNetID_AB = null;
-    private Predicate predFail = null;
+    private JLabel[] pcntFailed = null;
+    
     private Predicate predNotFail = null;
     private Predicate predNodes = null;
     
+    // recorded trial being replayed, its failures, the tick shown and the playback controls
+    private CascadeTrace replay = null;
+    private int[] replayNodes = null;
+    private int replayTick = 0;
+    private Timer replayTimer = null;
+    private JPanel replayPanel = null;
+    private JSlider tickSlider = null;
+    private JLabel tickLabel = null;
+    private JToggleButton playButton = null;
+    
+    public App(String inFile) {
+        this(inFile, null);
+    }
+    
     /**
      * setup sim/vis
+     * 
+     * @param resultsFile
+     *            .csv, .tsv, .ndjson or binary output for the per tick metrics; null prints them tab
+     *            separated to stdout
      */
-    public App(String inFile) {
+    public App(String inFile, String resultsFile) {
         // read in the network
         dataSetup(inFile);
+        resultsSetup(resultsFile);
         
         UILib.setPlatformLookAndFeel();
         
@@ -162,6 +203,11 @@ public class App {
         vis = new Visualization();
         vis.add(GRAPH, graph);
         
+        nodeItems = new VisualItem[graph.getNodeCount()];
+        for (int i = 0; i < nodeItems.length; ++i)
+            nodeItems[i] = vis.getVisualItem(GRAPH_NODES, graph.getNode(i));
+        marked = new int[nodeItems.length];
+        
         // draw the "name" label for NodeItems
         LabelRenderer r = new LabelRenderer("name");
         r.setRoundedCorner(8, 8); // round the corners
@@ -172,9 +218,14 @@ public class App {
         vis.setRendererFactory(new DefaultRendererFactory(r));
         
         // scale up nodes a bit
-        SizeAction nodeSize = new SizeAction(GRAPH_NODES, 1.0);
+        nodeSize = new SizeAction(GRAPH_NODES, 1.0);
+        // or by betweenness, once computed
+        centralitySize = new DataSizeAction(GRAPH_NODES, "betweenness");
+        centralitySize.setScale(Constants.SQRT_SCALE);
+        centralitySize.setMaximumSize(4);
+        centralitySize.setEnabled(false);
         // create our nominal color palette for nodes
-        int[] nodePalette = new int[] { ColorLib.rgb(255, 255, 153), ColorLib.rgb(190, 190, 255) };
+        int[] nodePalette = palette(new int[] { ColorLib.rgb(255, 255, 153), ColorLib.rgb(190, 190, 255) }, cascadeGraph.getNodeLayerCount());
         // map nominal data values to colors using our provided palette
         DataColorAction nodeFill = new DataColorAction(GRAPH_NODES, "netID", Constants.NOMINAL, VisualItem.FILLCOLOR, nodePalette);
         nodeFill.add(VisualItem.HIGHLIGHT, ColorLib.rgb(235, 180, 105));
@@ -185,18 +236,20 @@ public class App {
         // scale up edges a bit
         SizeAction edgeSize = new SizeAction(GRAPH_EDGES, 1);
         // create our nominal color palette for edges
-        int[] edgePalette = new int[] { ColorLib.rgb(170, 170, 120), ColorLib.rgb(255, 0, 0), ColorLib.rgb(130, 130, 160) };
+        int[] edgePalette = palette(new int[] { ColorLib.rgb(170, 170, 120), ColorLib.rgb(255, 0, 0), ColorLib.rgb(130, 130, 160) }, cascadeGraph.getEdgeLayerCount());
         DataColorAction edgeColor = new DataColorAction(GRAPH_EDGES, "netID", Constants.NOMINAL, VisualItem.STROKECOLOR, edgePalette);
         
         ActionList draw = new ActionList();
         draw.add(nodeSize);
+        draw.add(centralitySize);
         draw.add(nodeFill);
         draw.add(nodeText);
         draw.add(edgeSize);
         draw.add(edgeColor);
         draw.add(new RepaintAction());
         
-        ActionList animate = new ActionList(Activity.INFINITY);
+        // one shot; failures are hidden item by item as frames pick them up
+        ActionList animate = new ActionList();
         animate.add(new VisibilityFilter(GRAPH, predNotFail));
         animate.add(nodeFill);
         animate.add(new RepaintAction());
@@ -220,67 +273,37 @@ public class App {
                     clearFailed();
                 }
                 
+                int[] seeds = new int[add.length];
+                int count = 0;
+                
                 for (int i = 0; i < add.length; ++i) {
+                    if (add[i] instanceof Node)
+                        seeds[count++] = ((VisualItem) add[i]).getSourceTuple().getRow();
+                }
+                
+                // clicked seeds fail in the engine here; sim failures already have
+                if (count > 0) {
+                    runner.fail(seeds, 0, count);
                     
-                    if (((VisualItem) add[i]).getBoolean("fail") != true) {
-                        ((VisualItem) add[i]).setBoolean("fail", true);
-                        
-                        ((VisualItem) add[i]).setHover(false);
-                        
-                        if (add[i] instanceof Node) {
-                            String nId = ((Node) add[i]).getString("netID");
-                            
-                            if (nId.equals(NETID_A))
-                                failedNetA++;
-                            if (nId.equals(NETID_B))
-                                failedNetB++;
-                            
-                            for (Iterator<?> ei = ((Node) add[i]).edges(); ei.hasNext();) {
-                                Edge edge = (Edge) ei.next();
-                                
-                                // only fail the edge if it's not already failed
-                                if (edge.getBoolean("fail") != true) {
-                                    edge.setBoolean("fail", true);
-                                    
-                                    String eId = edge.getString("netID");
-                                    
-                                    if (eId.equals(NETID_A))
-                                        failedEdgesA++;
-                                    if (eId.equals(NETID_B))
-                                        failedEdgesB++;
-                                    if (eId.equals(NETID_AB))
-                                        failedEdgesAB++;
-                                }
-                            }
-                            
-                            // HACK prefuse isn't smart enough to issue an un-hover event when a
-                            // node vanishes, so i'll do it myself
-                            // total drag that it needs to be done like this; kind of a stupid
-                            // performance hit, but it looks very odd otherwise
-                            for (Iterator<?> ni = ((Node) add[i]).neighbors(); ni.hasNext();) {
-                                Node node = (Node) ni.next();
-                                ((VisualItem) node).setHighlighted(false);
-                            }
-                        }
+                    // frames update the items from the activity thread, holding the vis lock
+                    synchronized (vis) {
+                        showFailed(seeds, 0, count);
                     }
                 }
-                
-                vis.run("draw");
             }
         });
         
-        // create actions for sim
-        ActionList sim = new ActionList(Activity.INFINITY, STEP_SPEED);
-        simAction = new SimAction(GRAPH_NODES, predFail);
-        sim.add(simAction);
-        sim.add(new RepaintAction());
+        // the engine runs on its own thread; frames sample its latest snapshot
+        ActionList frames = new ActionList(Activity.INFINITY, 1000 / FRAME_RATE);
+        frameAction = new FrameAction();
+        frames.add(frameAction);
         
         // add the actions to the visualization
         vis.putAction("draw", draw);
         vis.putAction("animate", animate);
         vis.putAction("frLayout", frLayout);
         vis.putAction("fdLayout", fdlayout);
-        vis.putAction("sim", sim);
+        vis.putAction("frame", frames);
         
         vis.alwaysRunAfter("draw", "animate");
         
@@ -299,7 +322,7 @@ public class App {
         display.addControlListener(new PanControl());
         display.addControlListener(new ZoomControl());
         display.addControlListener(new ZoomToFitControl());
-        display.addControlListener(new NeighborHighlightControl());
+        display.addControlListener(new NeighborHighlightControl("animate"));
         
         display.addComponentListener(new ComponentListener() {
             
@@ -432,9 +455,34 @@ public class App {
         });
         controlPanel.add(resetLayoutButton);
         
+        ListModel sizeLM = new ListModel();
+        sizeLM.addElement("Size by betweenness");
+        JToggleGroup sizeToggle = new JToggleGroup(JToggleGroup.CHECKBOX, sizeLM);
+        sizeToggle.setBackground(Color.WHITE);
+        sizeToggle.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        sizeToggle.setAlignmentX(Component.LEFT_ALIGNMENT);
+        sizeToggle.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting())
+                    return;
+                
+                boolean bySize = !((ListSelectionModel) e.getSource()).isSelectionEmpty();
+                
+                if (bySize && graph.getNodeTable().getColumn("betweenness") == null)
+                    betweennessSetup();
+                
+                nodeSize.setEnabled(!bySize);
+                centralitySize.setEnabled(bySize);
+                vis.run("draw");
+            }
+        });
+        controlPanel.add(sizeToggle);
+        
         ListModel simLM = new ListModel();
         simLM.addElement("Run simulation");
-        JToggleGroup simToggle = new JToggleGroup(JToggleGroup.CHECKBOX, simLM);
+        simToggle = new JToggleGroup(JToggleGroup.CHECKBOX, simLM);
         simToggle.setBackground(Color.WHITE);
         simToggle.setFont(new Font("SansSerif", Font.PLAIN, 14));
         simToggle.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -443,21 +491,72 @@ public class App {
             @Override
             public void valueChanged(ListSelectionEvent e) {
                 if (runningSim) {
-                    vis.cancel("sim");
+                    runner.stop();
                     
                     runningSim = false;
                 }
                 else {
-                    vis.run("sim");
+                    // fresh seed for each cascade, logged to stderr (stdout carries the results) so an
+                    // odd run can be replayed
+                    if (runner.getSnapshot().getTick() == 0) {
+                        long seed = System.nanoTime();
+                        state.getRandom().setState(seed);
+                        System.err.println("seed: " + seed);
+                    }
                     
-                    runningSim = true;
+                    runner.start();
                     
-                    System.out.println("tick\ttotal\tnetA\tnetB\ttick\tedgeTot\tedgeA\tedgeB\tedgeAB");
+                    runningSim = true;
                 }
             }
         });
         controlPanel.add(simToggle);
         
+        ListModel speedLM = new ListModel();
+        speedLM.addElement("Full speed");
+        JToggleGroup speedToggle = new JToggleGroup(JToggleGroup.CHECKBOX, speedLM);
+        speedToggle.setBackground(Color.WHITE);
+        speedToggle.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        speedToggle.setAlignmentX(Component.LEFT_ALIGNMENT);
+        speedToggle.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting())
+                    return;
+                
+                // frames keep sampling at FRAME_RATE either way
+                boolean full = !((ListSelectionModel) e.getSource()).isSelectionEmpty();
+                runner.setPeriod(full ? 0 : STEP_SPEED);
+            }
+        });
+        controlPanel.add(speedToggle);
+        
+        ListModel modelLM = new ListModel();
+        modelLM.addElement("Mutual giant model");
+        modelLM.addElement("Weighted edges");
+        JToggleGroup modelToggle = new JToggleGroup(JToggleGroup.CHECKBOX, modelLM);
+        modelToggle.setBackground(Color.WHITE);
+        modelToggle.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        modelToggle.setAlignmentX(Component.LEFT_ALIGNMENT);
+        modelToggle.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting())
+                    return;
+                
+                // takes effect from the next tick, even in a running cascade
+                ListSelectionModel selection = (ListSelectionModel) e.getSource();
+                boolean weighted = selection.isSelectedIndex(1);
+                if (engine.getPropagation().isWeighted() != weighted)
+                    engine.setPropagation(engine.getPropagation().weighted(weighted));
+                
+                runner.setModel(selection.isSelectedIndex(0) ? mutualEngine : engine);
+            }
+        });
+        controlPanel.add(modelToggle);
+        
         JButton clearFailedButton = new JButton("Clear Failures");
         clearFailedButton.setAlignmentX(Component.LEFT_ALIGNMENT);
         clearFailedButton.addActionListener(new ActionListener() {
@@ -465,8 +564,6 @@ public class App {
             @Override
             public void actionPerformed(ActionEvent e) {
                 clearFailed();
-                
-                System.out.println("tick\ttotal\tnetA\tnetB\ttick\tedgeTot\tedgeA\tedgeB\tedgeAB");
             }
         });
         controlPanel.add(clearFailedButton);
@@ -482,17 +579,41 @@ public class App {
                     ((JToggleGroup) controlPanel.getComponent(0)).getSelectionModel().removeSelectionInterval(0, 0);
                 }
                 
-                vis.removeGroup(GRAPH);
+                // back to the pristine network without rebuilding any items: failures are undone
+                // through the fail list, the rest is reassigned by draw and the layout
+                clearFailed();
                 
-                vis.add(GRAPH, graph);
+                synchronized (vis) {
+                    for (Iterator<?> ti = vis.items(GRAPH); ti.hasNext();) {
+                        VisualItem item = (VisualItem) ti.next();
+                        item.setFixed(false);
+                        item.setHover(false);
+                        item.setHighlighted(false);
+                    }
+                }
                 
                 vis.run("draw");
                 vis.run("frLayout");
-                vis.run("animate");
             }
         });
         controlPanel.add(resetNetworkButton);
         
+        JButton openTraceButton = new JButton("Open Trace...");
+        openTraceButton.setAlignmentX(Component.LEFT_ALIGNMENT);
+        openTraceButton.addActionListener(new ActionListener() {
+            
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser chooser = new JFileChooser(".");
+                if (chooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION)
+                    openTrace(chooser.getSelectedFile().getPath());
+            }
+        });
+        controlPanel.add(openTraceButton);
+        
+        buildReplayPanel();
+        controlPanel.add(replayPanel);
+        
         rightPanel.add(controlPanel);
         
         // information panel
@@ -522,161 +643,341 @@ public class App {
             }
         });
         
-        // labels
-        JLabel pcntFailedLbl = new JLabel("Failed Nodes: ");
-        pcntFailedLbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        JLabel pcntFailedNetALbl = new JLabel("Failed Nodes (A): ");
-        pcntFailedNetALbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        JLabel pcntFailedNetBLbl = new JLabel("Failed Nodes (B): ");
-        pcntFailedNetBLbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        
-        JLabel pcntFailedEdgesLbl = new JLabel("Failed Edges: ");
-        pcntFailedEdgesLbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        JLabel pcntFailedEdgesALbl = new JLabel("Failed Edges (A): ");
-        pcntFailedEdgesALbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        JLabel pcntFailedEdgesBLbl = new JLabel("Failed Edges (B): ");
-        pcntFailedEdgesBLbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        JLabel pcntFailedEdgesABLbl = new JLabel("Failed Edges (A-B): ");
-        pcntFailedEdgesABLbl.setFont(new Font("SansSerif", Font.PLAIN, 14));
-        
-        // values
-        pcntFailed = new JLabel("0.0 %");
-        pcntFailed.setFont(new Font("SansSerif", Font.BOLD, 14));
-        pcntFailedNetA = new JLabel("0.0 %");
-        pcntFailedNetA.setFont(new Font("SansSerif", Font.BOLD, 14));
-        pcntFailedNetB = new JLabel("0.0 %");
-        pcntFailedNetB.setFont(new Font("SansSerif", Font.BOLD, 14));
-        
-        pcntFailedEdges = new JLabel("0.0 %");
-        pcntFailedEdges.setFont(new Font("SansSerif", Font.BOLD, 14));
-        pcntFailedEdgesA = new JLabel("0.0 %");
-        pcntFailedEdgesA.setFont(new Font("SansSerif", Font.BOLD, 14));
-        pcntFailedEdgesB = new JLabel("0.0 %");
-        pcntFailedEdgesB.setFont(new Font("SansSerif", Font.BOLD, 14));
-        pcntFailedEdgesAB = new JLabel("0.0 %");
-        pcntFailedEdgesAB.setFont(new Font("SansSerif", Font.BOLD, 14));
-        
-        infoPanel.add(pcntFailedLbl);
-        infoPanel.add(pcntFailed);
-        
-        infoPanel.add(pcntFailedNetALbl);
-        infoPanel.add(pcntFailedNetA);
-        
-        infoPanel.add(pcntFailedNetBLbl);
-        infoPanel.add(pcntFailedNetB);
-        
-        infoPanel.add(pcntFailedEdgesLbl);
-        infoPanel.add(pcntFailedEdges);
-        
-        infoPanel.add(pcntFailedEdgesALbl);
-        infoPanel.add(pcntFailedEdgesA);
-        
-        infoPanel.add(pcntFailedEdgesBLbl);
-        infoPanel.add(pcntFailedEdgesB);
-        
-        infoPanel.add(pcntFailedEdgesABLbl);
-        infoPanel.add(pcntFailedEdgesAB);
-        
-        // layout
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedLbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailed, 2, SpringLayout.EAST, pcntFailedLbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedNetALbl, 5, SpringLayout.SOUTH, pcntFailedLbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedNetA, 5, SpringLayout.SOUTH, pcntFailedLbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedNetALbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedNetA, 2, SpringLayout.EAST, pcntFailedNetALbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedNetBLbl, 5, SpringLayout.SOUTH, pcntFailedNetALbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedNetB, 5, SpringLayout.SOUTH, pcntFailedNetALbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedNetBLbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedNetB, 2, SpringLayout.EAST, pcntFailedNetBLbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesLbl, 10, SpringLayout.SOUTH, pcntFailedNetBLbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdges, 10, SpringLayout.SOUTH, pcntFailedNetBLbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesLbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdges, 2, SpringLayout.EAST, pcntFailedEdgesLbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesALbl, 5, SpringLayout.SOUTH, pcntFailedEdgesLbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesA, 5, SpringLayout.SOUTH, pcntFailedEdgesLbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesALbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesA, 2, SpringLayout.EAST, pcntFailedEdgesALbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesBLbl, 5, SpringLayout.SOUTH, pcntFailedEdgesALbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesB, 5, SpringLayout.SOUTH, pcntFailedEdgesALbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesBLbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesB, 2, SpringLayout.EAST, pcntFailedEdgesBLbl);
-        
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesABLbl, 5, SpringLayout.SOUTH, pcntFailedEdgesBLbl);
-        infoLayout.putConstraint(SpringLayout.NORTH, pcntFailedEdgesAB, 5, SpringLayout.SOUTH, pcntFailedEdgesBLbl);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesABLbl, 5, SpringLayout.WEST, infoPanel);
-        infoLayout.putConstraint(SpringLayout.WEST, pcntFailedEdgesAB, 2, SpringLayout.EAST, pcntFailedEdgesABLbl);
+        // one row per metric column: nodes, nodes per layer, edges, edges per edge layer
+        String[] labels = new String[CascadeMetrics.size(cascadeGraph)];
+        int c = 0;
+        labels[c++] = "Failed Nodes: ";
+        for (int l = 0; l < cascadeGraph.getNodeLayerCount(); ++l)
+            labels[c++] = "Failed Nodes (" + cascadeGraph.getNodeLayerName(l) + "): ";
+        labels[c++] = "Failed Edges: ";
+        for (int l = 0; l < cascadeGraph.getEdgeLayerCount(); ++l)
+            labels[c++] = "Failed Edges (" + cascadeGraph.getEdgeLayerName(l) + "): ";
+        
+        pcntFailed = new JLabel[labels.length];
+        JLabel above = null;
+        
+        for (int i = 0; i < labels.length; ++i) {
+            JLabel label = new JLabel(labels[i]);
+            label.setFont(new Font("SansSerif", Font.PLAIN, 14));
+            pcntFailed[i] = new JLabel("0.0 %");
+            pcntFailed[i].setFont(new Font("SansSerif", Font.BOLD, 14));
+            
+            infoPanel.add(label);
+            infoPanel.add(pcntFailed[i]);
+            
+            // a wider gap between the node and edge rows
+            if (above != null) {
+                int gap = i == 1 + cascadeGraph.getNodeLayerCount() ? 10 : 5;
+                infoLayout.putConstraint(SpringLayout.NORTH, label, gap, SpringLayout.SOUTH, above);
+                infoLayout.putConstraint(SpringLayout.NORTH, pcntFailed[i], gap, SpringLayout.SOUTH, above);
+            }
+            infoLayout.putConstraint(SpringLayout.WEST, label, 5, SpringLayout.WEST, infoPanel);
+            infoLayout.putConstraint(SpringLayout.WEST, pcntFailed[i], 2, SpringLayout.EAST, label);
+            
+            above = label;
+        }
         
         rightPanel.add(infoPanel);
     }
     
-    private void clearFailed() {
-        vis.getGroup(Visualization.FOCUS_ITEMS).clear();
+    /**
+     * Tick slider, step buttons and playback for a loaded trace; hidden until one is opened.
+     */
+    private void buildReplayPanel() {
+        replayPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 2));
+        replayPanel.setBackground(Color.WHITE);
+        replayPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        replayPanel.setMaximumSize(new Dimension(RPANEL_WIDTH, 90));
+        replayPanel.setVisible(false);
+        
+        tickLabel = new JLabel();
+        tickLabel.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        tickLabel.setPreferredSize(new Dimension(RPANEL_WIDTH - 20, 18));
+        
+        tickSlider = new JSlider(0, 0);
+        tickSlider.setBackground(Color.WHITE);
+        tickSlider.setPreferredSize(new Dimension(RPANEL_WIDTH - 20, 20));
+        tickSlider.addChangeListener(new ChangeListener() {
+            
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (replay != null)
+                    showTick(tickSlider.getValue());
+            }
+        });
         
-        for (Iterator<?> ti = vis.items(GRAPH, predFail); ti.hasNext();) {
-            VisualItem t = (VisualItem) ti.next();
+        JButton backButton = new JButton("<");
+        backButton.addActionListener(new ActionListener() {
             
-            t.setBoolean("fail", false);
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                tickSlider.setValue(tickSlider.getValue() - 1);
+            }
+        });
+        
+        JButton forwardButton = new JButton(">");
+        forwardButton.addActionListener(new ActionListener() {
             
-            if (t instanceof Node)
-                for (Iterator<?> ei = ((Node) t).edges(); ei.hasNext();) {
-                    Edge edge = (Edge) ei.next();
-                    edge.setBoolean("fail", false);
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                tickSlider.setValue(tickSlider.getValue() + 1);
+            }
+        });
+        
+        final JComboBox<Integer> speedBox = new JComboBox<>(REPLAY_SPEEDS);
+        speedBox.setToolTipText("ticks per second");
+        
+        // playback runs on the Swing timer, independent of the engine thread and STEP_SPEED
+        replayTimer = new Timer(1000, new ActionListener() {
+            
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (tickSlider.getValue() >= tickSlider.getMaximum())
+                    playButton.setSelected(false);
+                else
+                    tickSlider.setValue(tickSlider.getValue() + 1);
+            }
+        });
+        
+        playButton = new JToggleButton("Play");
+        playButton.addChangeListener(new ChangeListener() {
+            
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (playButton.isSelected() && !replayTimer.isRunning()) {
+                    replayTimer.setDelay(1000 / (Integer) speedBox.getSelectedItem());
+                    replayTimer.start();
                 }
-        }
+                else if (!playButton.isSelected() && replayTimer.isRunning()) {
+                    replayTimer.stop();
+                }
+            }
+        });
         
-        simAction.reset();
+        speedBox.addActionListener(new ActionListener() {
+            
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                replayTimer.setDelay(1000 / (Integer) speedBox.getSelectedItem());
+            }
+        });
         
-        vis.run("draw");
+        replayPanel.add(tickLabel);
+        replayPanel.add(tickSlider);
+        replayPanel.add(backButton);
+        replayPanel.add(playButton);
+        replayPanel.add(forwardButton);
+        replayPanel.add(speedBox);
     }
     
-    private void dataSetup(String inFile) {
-        // read INPUT_FILE
+    /**
+     * Loads one trial of a trace file for replay, asking which if the file holds several, and shows
+     * its first tick.
+     */
+    private void openTrace(String file) {
+        CascadeTrace trace = null;
+        
         try {
-            graph = new GraphMLReader().readGraph(inFile);
+            TraceReader reader = TraceReader.open(file);
+            
+            try {
+                if (!reader.fits(cascadeGraph)) {
+                    JOptionPane.showMessageDialog(frame, file + " was recorded on a different network.", "Open Trace", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (reader.getTrialCount() == 0) {
+                    JOptionPane.showMessageDialog(frame, file + " holds no complete trial.", "Open Trace", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                int i = 0;
+                if (reader.getTrialCount() > 1) {
+                    Long[] trials = new Long[reader.getTrialCount()];
+                    for (int t = 0; t < trials.length; ++t)
+                        trials[t] = reader.getTrial(t);
+                    
+                    Object choice = JOptionPane.showInputDialog(frame, "Trial:", "Open Trace", JOptionPane.QUESTION_MESSAGE, null, trials, trials[0]);
+                    if (choice == null)
+                        return;
+                    
+                    i = reader.find((Long) choice);
+                }
+                
+                trace = reader.read(i);
+            }
+            finally {
+                reader.close();
+            }
         }
-        catch (DataIOException e) {
+        catch (IOException e) {
             e.printStackTrace();
-            System.err.println("Error loading graph. Exiting.");
-            System.exit(1);
+            JOptionPane.showMessageDialog(frame, "Error reading " + file + ": " + e.getMessage(), "Open Trace", JOptionPane.ERROR_MESSAGE);
+            return;
         }
         
-        // add sim columns
-        graph.addColumn("fail", boolean.class, false);
+        playButton.setSelected(false);
         
-        // setup predicates
-        predNetID_A = ExpressionParser.predicate("(netID == '" + NETID_A + "')");
+        replay = null;
+        replayNodes = new int[trace.getFailedCount()];
+        trace.getNodes(0, replayNodes.length, replayNodes, 0);
+        tickSlider.setMinimum(trace.getFirstTick());
+        tickSlider.setMaximum(trace.getLastTick());
+        tickSlider.setValue(trace.getFirstTick());
         
-        if (ExpressionParser.getError() != null) {
-            System.err.println("Error parsing predNetID_A. Exiting.");
-            System.exit(1);
+        replay = trace;
+        replayTick = Integer.MAX_VALUE;
+        showTick(trace.getFirstTick());
+        
+        replayPanel.setVisible(true);
+        controlPanel.validate();
+        
+        System.err.println("replaying trial " + trace.getTrial() + " of " + file);
+    }
+    
+    /**
+     * Shows the replayed trial as of the end of a tick by failing its recorded nodes in the engine,
+     * the same way clicked seeds are, so frames and metrics follow as usual. Moving forward only
+     * fails the ticks in between; moving back, or after anything else changed the failures, starts
+     * over from the unfailed network.
+     */
+    private void showTick(int tick) {
+        if (runningSim)
+            simToggle.getSelectionModel().removeSelectionInterval(0, 0);
+        
+        int shown = replay.getFailedCount(replayTick);
+        int target = replay.getFailedCount(tick);
+        
+        if (tick < replayTick || runner.getSnapshot().getFailedCount() != shown) {
+            runner.clear();
+            runner.fail(replayNodes, 0, target);
+        }
+        else {
+            runner.fail(replayNodes, shown, target);
         }
         
-        predNetID_B = ExpressionParser.predicate("(netID == '" + NETID_B + "')");
+        replayTick = tick;
+        tickLabel.setText("Trial " + replay.getTrial() + ", tick " + tick + " of " + replay.getLastTick());
+    }
+    
+    /**
+     * Stops the cascade and resets the engine; the next frame shows the failed items again.
+     */
+    private void clearFailed() {
+        vis.getGroup(Visualization.FOCUS_ITEMS).clear();
         
-        if (ExpressionParser.getError() != null) {
-            System.err.println("Error parsing predNetID_B. Exiting.");
-            System.exit(1);
+        if (runningSim)
+            simToggle.getSelectionModel().removeSelectionInterval(0, 0);
+        
+        // clearing the focus group comes back through here; only count a trial once
+        CascadeSnapshot snapshot = runner.getSnapshot();
+        if (snapshot.getTick() == 0 && snapshot.getFailedCount() == 0)
+            return;
+        
+        runner.clear();
+        trial++;
+    }
+    
+    /**
+     * Hides a batch of failed nodes, <code>nodes[from..to)</code> by engine row, with one redraw.
+     */
+    private void showFailed(int[] nodes, int from, int to) {
+        boolean recolor = false;
+        
+        for (int i = from; i < to; ++i) {
+            recolor |= markFailed(nodes[i]);
         }
         
-        predNetID_AB = ExpressionParser.predicate("(netID == '" + NETID_AB + "')");
+        if (recolor)
+            vis.run("animate");
+        else
+            vis.repaint();
+    }
+    
+    /**
+     * Hides a failed node and its edges.
+     * 
+     * @return true if highlight colors need redoing, i.e. the node was hovered
+     */
+    private boolean markFailed(int row) {
+        VisualItem item = nodeItems[row];
         
-        if (ExpressionParser.getError() != null) {
-            System.err.println("Error parsing predNetID_AB. Exiting.");
-            System.exit(1);
+        if (item.getBoolean("fail"))
+            return false;
+        
+        marked[markedCount++] = row;
+        item.setBoolean("fail", true);
+        item.setVisible(false);
+        
+        for (Iterator<?> ei = ((Node) item).edges(); ei.hasNext();) {
+            VisualItem edge = (VisualItem) ei.next();
+            edge.setBoolean("fail", true);
+            edge.setVisible(false);
         }
         
-        predFail = ExpressionParser.predicate("(fail == TRUE)");
+        if (!item.isHover())
+            return false;
         
-        if (ExpressionParser.getError() != null) {
-            System.err.println("Error parsing predFail. Exiting.");
+        // HACK prefuse isn't smart enough to issue an un-hover event when a node vanishes, so i'll
+        // do it myself; only a hovered node has highlighted neighbors
+        item.setHover(false);
+        for (Iterator<?> ni = ((Node) item).neighbors(); ni.hasNext();) {
+            ((VisualItem) ni.next()).setHighlighted(false);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Shows everything failed so far again, walking only the hidden rows.
+     */
+    private void unmarkFailed() {
+        for (int i = 0; i < markedCount; ++i) {
+            VisualItem item = nodeItems[marked[i]];
+            
+            item.setBoolean("fail", false);
+            item.setVisible(true);
+            
+            for (Iterator<?> ei = ((Node) item).edges(); ei.hasNext();) {
+                VisualItem edge = (VisualItem) ei.next();
+                edge.setBoolean("fail", false);
+                edge.setVisible(true);
+            }
+        }
+        
+        markedCount = 0;
+    }
+    
+    private void dataSetup(String inFile) {
+        // read INPUT_FILE
+        try {
+            graph = new GraphMLReader().readGraph(inFile);
+        }
+        catch (DataIOException e) {
+            e.printStackTrace();
+            System.err.println("Error loading graph. Exiting.");
             System.exit(1);
         }
         
+        // mirror the network into the engine
+        try {
+            cascadeGraph = PrefuseGraphs.toCascadeGraph(graph);
+        }
+        catch (DataIOException e) {
+            System.err.println(e.getMessage() + ". Exiting.");
+            System.exit(1);
+        }
+        
+        // add sim columns
+        graph.addColumn("fail", boolean.class, false);
+        
+        int[] intra = new int[cascadeGraph.getNodeLayerCount()];
+        Arrays.fill(intra, PROB_INTRA);
+        engine = new CascadeEngine(cascadeGraph, new Propagation(intra, PROB_INTER));
+        mutualEngine = new MutualGiantEngine(cascadeGraph);
+        state = new CascadeState(cascadeGraph);
+        runner = new CascadeRunner(engine, state);
+        runner.setPeriod(STEP_SPEED);
+        
         predNotFail = ExpressionParser.predicate("(fail == FALSE)");
         
         if (ExpressionParser.getError() != null) {
@@ -691,177 +992,140 @@ public class App {
             System.exit(1);
         }
         
-        // get node counts
-        countNetA = 0;
-        countNetB = 0;
-        
-        for (Iterator<?> it = graph.getNodes().tuples(predNetID_A); it.hasNext();) {
-            countNetA++;
-            it.next();
-        }
+        System.out.println("total nodes: " + cascadeGraph.getNodeCount());
+        System.out.println("total edges: " + cascadeGraph.getEdgeCount());
+        for (int l = 0; l < cascadeGraph.getNodeLayerCount(); ++l)
+            System.out.println("net" + cascadeGraph.getNodeLayerName(l) + " nodes: " + cascadeGraph.getNodeLayerSize(l));
+        for (int l = 0; l < cascadeGraph.getEdgeLayerCount(); ++l)
+            System.out.println("net" + cascadeGraph.getEdgeLayerName(l) + " edges: " + cascadeGraph.getEdgeLayerSize(l));
+    }
+    
+    /**
+     * adds a betweenness column over the combined network, for sizing nodes
+     */
+    private void betweennessSetup() {
+        double[] betweenness = new Centrality(cascadeGraph, -1).compute().getBetweenness();
         
-        for (Iterator<?> it = graph.getNodes().tuples(predNetID_B); it.hasNext();) {
-            countNetB++;
-            it.next();
+        synchronized (vis) {
+            graph.addColumn("betweenness", double.class, 0.0);
+            
+            for (int i = 0; i < betweenness.length; ++i)
+                graph.getNode(i).setDouble("betweenness", betweenness[i]);
         }
-        
-        // get edge counts
-        countEdgesA = 0;
-        countEdgesB = 0;
-        countEdgesAB = 0;
-        
-        for (Iterator<?> it = graph.getEdges().tuples(predNetID_A); it.hasNext();) {
-            countEdgesA++;
-            it.next();
+    }
+    
+    /**
+     * the given colors, or a generated palette for networks with more layers than that
+     */
+    private static int[] palette(int[] colors, int size) {
+        return size <= colors.length ? colors : ColorLib.getCategoryPalette(size);
+    }
+    
+    private void resultsSetup(String resultsFile) {
+        try {
+            String[] names = CascadeMetrics.names(cascadeGraph);
+            results = resultsFile != null ? ResultSink.open(resultsFile, names) : new ResultSink(new CsvResultWriter(System.out, '\t'), names, 4096);
         }
-        
-        for (Iterator<?> it = graph.getEdges().tuples(predNetID_B); it.hasNext();) {
-            countEdgesB++;
-            it.next();
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error opening results. Exiting.");
+            System.exit(1);
         }
         
-        for (Iterator<?> it = graph.getEdges().tuples(predNetID_AB); it.hasNext();) {
-            countEdgesAB++;
-            it.next();
-        }
+        // every tick is recorded, however few of them get drawn
+        runner.setListener(new CascadeRunner.Listener() {
+            
+            @Override
+            public void tick(CascadeSnapshot snapshot) {
+                results.offer(trial, snapshot.getTick(), snapshot.getMetrics());
+            }
+        });
         
-        System.out.println("total nodes: " + (int) (countNetA + countNetB));
-        System.out.println("total edges: " + (int) (countEdgesA + countEdgesB + countEdgesAB));
-        System.out.println("netA nodes: " + (int) countNetA);
-        System.out.println("netA edges: " + (int) countEdgesA);
-        System.out.println("netB nodes: " + (int) countNetB);
-        System.out.println("netB edges: " + (int) countEdgesB);
-        System.out.println("A-B edges: " + (int) countEdgesAB);
+        // the frame exits the VM on close; write out what is still queued
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            
+            @Override
+            public void run() {
+                try {
+                    results.close();
+                    
+                    if (results.getDropped() > 0)
+                        System.err.println(results.getDropped() + " result records dropped");
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
     
     private void run() {
         vis.run("draw"); // draw graph
         vis.run("frLayout"); // initial layout
         vis.run("animate"); // animation
+        vis.run("frame"); // follow the engine
         frame.setVisible(true); // show the window
     }
     
+    /**
+     * @param args
+     *            optional results file, then optionally a trace file to replay
+     */
     public static void main(String[] args) {
-        App app = new App(INPUT_FILE);
+        App app = new App(INPUT_FILE, args.length > 0 ? args[0] : null);
         app.run();
+        
+        if (args.length > 1)
+            app.openTrace(args[1]);
     }
     
-    private class SimAction extends ItemAction {
-        
-        private TupleSet checkedNodes = null;
+    /**
+     * Mirrors the engine's latest snapshot into the visualization. Runs at the frame rate but only
+     * touches items that failed since the last frame; an unchanged snapshot costs nothing.
+     */
+    private class FrameAction extends Action {
         
         private DecimalFormat decFmt = null;
+        private CascadeSnapshot shown = null;
+        private int shownFailed = 0;
+        private int[] failed = new int[0];
         
-        public SimAction(String group, Predicate filter) {
-            super(group, filter);
-            
-            checkedNodes = new DefaultTupleSet();
+        public FrameAction() {
             decFmt = new DecimalFormat("###.##");
             decFmt.setDecimalSeparatorAlwaysShown(true);
             decFmt.setMinimumFractionDigits(1);
         }
         
-        public void updateMetrics() {
-            double failedPercent = ((failedNetA + failedNetB) / (countNetA + countNetB)) * 100;
-            double failedNetAPercent = (failedNetA / countNetA) * 100;
-            double failedNetBPercent = (failedNetB / countNetB) * 100;
-            double failedEdgesPercent = ((failedEdgesA + failedEdgesB + failedEdgesAB) / (countEdgesA + countEdgesB + countEdgesAB)) * 100;
-            double failedEdgesAPercent = (failedEdgesA / countEdgesA) * 100;
-            double failedEdgesBPercent = (failedEdgesB / countEdgesB) * 100;
-            double failedEdgesABPercent = (failedEdgesAB / countEdgesAB) * 100;
-            
-            String failedPercentFmt = decFmt.format(failedPercent);
-            String failedNetAPercentFmt = decFmt.format(failedNetAPercent);
-            String failedNetBPercentFmt = decFmt.format(failedNetBPercent);
-            String failedEdgesPercentFmt = decFmt.format(failedEdgesPercent);
-            String failedEdgesAPercentFmt = decFmt.format(failedEdgesAPercent);
-            String failedEdgesBPercentFmt = decFmt.format(failedEdgesBPercent);
-            String failedEdgesABPercentFmt = decFmt.format(failedEdgesABPercent);
-            
-            pcntFailed.setText(failedPercentFmt + " %");
-            pcntFailedNetA.setText(failedNetAPercentFmt + " %");
-            pcntFailedNetB.setText(failedNetBPercentFmt + " %");
-            pcntFailedEdges.setText(failedEdgesPercentFmt + " %");
-            pcntFailedEdgesA.setText(failedEdgesAPercentFmt + " %");
-            pcntFailedEdgesB.setText(failedEdgesBPercentFmt + " %");
-            pcntFailedEdgesAB.setText(failedEdgesABPercentFmt + " %");
-            
-            System.out.println(ticks + "\t" + failedPercentFmt + "\t" + failedNetAPercentFmt + "\t" + failedNetBPercentFmt + "\t" + ticks + "\t" + failedEdgesPercentFmt + "\t" + failedEdgesAPercentFmt + "\t" + failedEdgesBPercentFmt + "\t" + failedEdgesABPercentFmt);
-        }
-        
-        public void reset() {
-            ticks = 0;
-            
-            failedNetA = 0;
-            failedNetB = 0;
-            failedEdgesA = 0;
-            failedEdgesB = 0;
-            failedEdgesAB = 0;
-            
-            pcntFailed.setText("0.0 %");
-            pcntFailedNetA.setText("0.0 %");
-            pcntFailedNetB.setText("0.0 %");
-            pcntFailedEdges.setText("0.0 %");
-            pcntFailedEdgesA.setText("0.0 %");
-            pcntFailedEdgesB.setText("0.0 %");
-            pcntFailedEdgesAB.setText("0.0 %");
-            
-            checkedNodes.clear();
+        public void updateMetrics(CascadeSnapshot snapshot) {
+            for (int i = 0; i < pcntFailed.length; ++i)
+                pcntFailed[i].setText(decFmt.format(snapshot.getMetric(i)) + " %");
         }
         
         @Override
         public void run(double frac) {
-            Iterator<?> items = getVisualization().items(m_group, m_predicate);
-            while (items.hasNext()) {
-                process((VisualItem) items.next(), frac);
-            }
+            CascadeSnapshot snapshot = runner.getSnapshot();
             
-            // only compute metrics once per run
-            ticks++;
-            simAction.updateMetrics();
-        }
-        
-        @Override
-        public void process(VisualItem item, double frac) {
-            TupleSet focusGroup = vis.getGroup(Visualization.FOCUS_ITEMS);
+            if (snapshot == shown)
+                return;
             
-            if (item instanceof Node) {
-                Node node = (Node) item;
-                String sourceId = node.getString("netID");
-                
-                for (Iterator<?> ni = node.neighbors(); ni.hasNext();) {
-                    Node n = (Node) ni.next();
-                    
-                    if (checkedNodes.containsTuple(n))
-                        continue;
-                    
-                    String nId = n.getString("netID");
-                    Random gen = new Random();
-                    int rnd = gen.nextInt(100);
-                    
-                    if (nId.equals(sourceId)) {
-                        if (sourceId.equals(NETID_A)) {
-                            if (rnd <= PROB_A) {
-                                focusGroup.addTuple(n);
-                            }
-                        }
-                        
-                        if (sourceId.equals(NETID_B)) {
-                            if (rnd <= PROB_B) {
-                                focusGroup.addTuple(n);
-                            }
-                        }
-                    }
-                    else {
-                        if (rnd <= PROB_AB) {
-                            focusGroup.addTuple(n);
-                        }
-                    }
-                    
-                    checkedNodes.addTuple(n);
-                }
+            // cleared since the last frame
+            if (shown != null && snapshot.getGeneration() != shown.getGeneration()) {
+                unmarkFailed();
+                shownFailed = 0;
             }
+            
+            // everything that failed since the last frame, drawn as one batch
+            int count = snapshot.getFailedCount() - shownFailed;
+            if (failed.length < count)
+                failed = new int[Math.max(count, 2 * failed.length)];
+            snapshot.getFailed(shownFailed, snapshot.getFailedCount(), failed, 0);
+            
+            shown = snapshot;
+            shownFailed = snapshot.getFailedCount();
+            
+            updateMetrics(snapshot);
+            showFailed(failed, 0, count);
         }
     }
-    // END class SimAction
+    // END class FrameAction
 }
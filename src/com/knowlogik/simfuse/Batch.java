@@ -0,0 +1,1083 @@
+package com.knowlogik.simfuse;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import com.knowlogik.simfuse.analysis.Centrality;
+import com.knowlogik.simfuse.batch.BitParallelRunner;
+import com.knowlogik.simfuse.batch.Distribution;
+import com.knowlogik.simfuse.batch.ParameterSweep;
+import com.knowlogik.simfuse.batch.SeedStrategy;
+import com.knowlogik.simfuse.batch.ThresholdFinder;
+import com.knowlogik.simfuse.batch.TrialRunner;
+import com.knowlogik.simfuse.batch.TrialStatistics;
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeEngine;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeMetrics;
+import com.knowlogik.simfuse.engine.CascadeModel;
+import com.knowlogik.simfuse.engine.CascadeState;
+import com.knowlogik.simfuse.engine.CascadeTrace;
+import com.knowlogik.simfuse.engine.CompactAdjacency;
+import com.knowlogik.simfuse.engine.CompactCascadeEngine;
+import com.knowlogik.simfuse.engine.MutualGiantEngine;
+import com.knowlogik.simfuse.engine.Propagation;
+import com.knowlogik.simfuse.engine.RandomStream;
+import com.knowlogik.simfuse.gen.NetworkGenerator;
+import com.knowlogik.simfuse.io.CheckpointFile;
+import com.knowlogik.simfuse.io.GraphMLLoader;
+import com.knowlogik.simfuse.io.GraphMLWriter;
+import com.knowlogik.simfuse.io.GraphSnapshot;
+import com.knowlogik.simfuse.io.ResultSink;
+import com.knowlogik.simfuse.io.TraceReader;
+import com.knowlogik.simfuse.io.TraceWriter;
+
+/**
+ * Simfuse batch front end - runs cascades without a display.
+ * 
+ * <pre>
+ * Batch trials --input file.graphml --seeds A.v1,B.v7 [--trials 1000] [--threads n]
+ *              [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--max-ticks 10000]
+ *              [--quantiles 0.05,0.5,0.95] [--seed n] [--first-trial 0] [--results file]
+ *              [--model spread|mutual] [--giant true] [--bit-parallel true] [--compact true]
+ *              [--histogram 10] [--trace file.sft]
+ * Batch sweep  --input file.graphml --seeds A.v1,B.v7 [--prob-a 30] [--prob-b 30]
+ *              [--prob-ab 0:100:10] [--trials 100] [--threads n] [--seed n]
+ * Batch threshold --input file.graphml --seeds A.v1,B.v7 [--vary ab|&lt;layer&gt;] [--level 50]
+ *              [--metric total] [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--range 0:100]
+ *              [--probes 3] [--max-trials 2000] [--z 1.96] [--threads n] [--seed n]
+ * Batch checkpoint --input file.graphml --seeds A.v1,B.v7 --ticks 5 --output file.sfc
+ *              [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--seed n] [--model spread|mutual]
+ *              [--compact true]
+ * Batch trace  --input file.graphml --trace file.sft [--trial n]
+ * Batch centrality --input file.graphml [--network all|A|B] [--samples k] [--sort betweenness]
+ *              [--top n] [--threads n] [--seed n]
+ * Batch convert --input file.graphml --output file.sfg
+ * Batch generate --family scale_prefall --nodes 1000000 --output file.graphml|file.sfg
+ *              [--degree 10] [--gamma 2.5] [--coupling 0.25] [--seed n]
+ * </pre>
+ * 
+ * Layers are whatever netIDs the input uses, as many as there are. Failures spread within a layer
+ * with probability <code>--prob-&lt;layer&gt;</code> (the lower-cased netID, e.g. --prob-a) and
+ * between layers with <code>--prob-ab</code>; <code>--prob-matrix</code> gives the full matrix
+ * instead, one row per source layer in layer order, e.g. <code>30,80,80;80,30,80;80,80,30</code>.
+ * <code>sweep</code> and <code>threshold</code> vary any layer's and the between-layer
+ * probability. With <code>--weighted true</code> an edge of weight w counts as w parallel links,
+ * so failures cross heavy edges more readily, see {@link Propagation}.
+ * 
+ * Any --input may be GraphML or a binary snapshot written by <code>convert</code>; snapshots are
+ * memory mapped rather than parsed. <code>--off-heap true</code> also keeps a GraphML graph and
+ * every worker's cascade state in direct buffers, so very large networks need little heap and give
+ * the GC next to nothing to trace. Seeds are node names or engine node indices. The master random
+ * seed is printed to stderr; passing it back with <code>--seed</code> (and
+ * <code>--first-trial</code> to pick out one trial) reproduces a run exactly, whatever the thread
+ * count. Results go to stdout as one tab separated row per tick with the mean, variance and
+ * quantiles of every metric the GUI reports. <code>--results</code> additionally writes every
+ * trial's raw per tick metrics, as .csv, .tsv, .ndjson or (any other name) binary records, from a
+ * background thread.
+ * 
+ * Distributions keep their samples up to {@link Distribution#EXACT} trials and a fixed 0.1 point
+ * histogram past that, so memory does not grow with the trial count and quantiles of large runs are
+ * read off the bins. <code>--histogram n</code> (a divisor of 1000) follows the table with the final
+ * value of every metric as trial counts in n bins from 0 to 100 percent, which shows whether
+ * cascades die out or take over rather than only their mean.
+ * 
+ * <code>sweep</code> takes a value list or <code>start:end:step</code> range for every
+ * <code>--prob-&lt;layer&gt;</code> given and for <code>--prob-ab</code> (ignored on a single layer);
+ * layers without one keep the default 30, or the <code>--prob-matrix</code> entries where one is
+ * given. It prints one row per grid point, as points finish, with every layer's probability in a
+ * column named after the layer, then the between-layer one, and the final-state mean, variance and
+ * quantiles of every metric. All points share one pool and the same trial random streams.
+ * 
+ * <code>threshold</code> searches the varied probability (<code>--vary</code>, a layer name as in
+ * <code>--prob-&lt;layer&gt;</code> or <code>ab</code> for between layers) for where the mean final
+ * value of a metric crosses <code>--level</code>, running only as many trials per probe as it takes
+ * to tell which side of the level the probe is on.
+ * 
+ * <code>checkpoint</code> runs one cascade for <code>--ticks</code> ticks and saves its state.
+ * <code>trials</code>, <code>sweep</code>, <code>threshold</code> and <code>checkpoint</code> itself
+ * accept <code>--from file.sfc</code> in place of <code>--seeds</code> to branch off a saved state
+ * instead of starting over at tick 0, e.g. to try several PROB_AB values on a cascade already under
+ * way.
+ * 
+ * Instead of naming seeds, <code>--attack random|degree|degree:A|adaptive --count k</code> picks k
+ * of them: at random (from <code>--attack-seed</code>), by highest degree overall or within one
+ * layer, or by highest degree recounted after each pick; <code>betweenness</code>,
+ * <code>closeness</code> and <code>core</code> rank by centrality instead. See {@link SeedStrategy}.
+ * 
+ * <code>--model mutual</code> replaces the probabilistic spread with the mutual giant component
+ * model ({@link MutualGiantEngine}): nodes fail once cut off from their layer's giant component or
+ * left without a working partner in the other layer. It adds each layer's giant component size to
+ * the reported metrics, which <code>--giant true</code> does for the default model as well.
+ * 
+ * <code>--bit-parallel true</code> runs the default model 64 trials at a time on a
+ * {@link com.knowlogik.simfuse.engine.BitParallelEngine}. Trials follow the same rules but draw
+ * differently, so results agree with the default runner's statistically, not row for row; a
+ * single trial is only reproduced by rerunning its whole batch of 64. It pays off where the 64
+ * cascades overlap, i.e. at high probabilities: SimBench's <code>bit-parallel</code> against
+ * <code>trials64</code> has it 2 to 5 times faster at 30/30/80 and somewhat slower at 10/10/20.
+ * 
+ * <code>--compact true</code> (<code>trials</code> and <code>checkpoint</code>) runs the default
+ * model over a {@link com.knowlogik.simfuse.engine.CompactAdjacency}: neighbor lists sorted and
+ * delta encoded as varints with the edge layer in their low bits, a few times smaller than the
+ * plain columns. Neighbors are then tried in a different order, so results agree with the default
+ * runner's statistically; the encoded and plain sizes go to stderr. It cannot be combined with
+ * <code>--weighted</code>.
+ * 
+ * <code>--trace file.sft</code> also records every trial of a <code>trials</code> run as a
+ * compact binary log of its failures: per failure the node, the failed neighbor it spread from and
+ * both their layers, per trial a tick index ({@link TraceWriter}). <code>trace</code> lists the
+ * trials in such a file, or with <code>--trial</code> prints one trial's failures as tick, node,
+ * layer, source and source layer rows. The GUI replays traces tick by tick, forwards and backwards.
+ * 
+ * <code>centrality</code> lists betweenness, closeness and core number per node of the combined
+ * graph or one layer, best first; <code>--samples</code> estimates the first two from a random
+ * subset of BFS sources.
+ * 
+ * <code>generate</code> streams a synthetic network of one of the bundled families (erdos or scale
+ * layers, rand or pref coupling, optionally "all") to GraphML, or to a snapshot for any output not
+ * ending in .graphml.
+ */
+public class Batch {
+    
+    private static final String USAGE = "usage: Batch trials --input file.graphml --seeds A.v1,B.v7 [--trials 1000] [--threads n]\n"
+            + "                    [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--max-ticks 10000]\n"
+            + "                    [--quantiles 0.05,0.5,0.95] [--seed n] [--first-trial 0] [--results file]\n"
+            + "                    [--model spread|mutual] [--giant true] [--bit-parallel true] [--compact true]\n"
+            + "                    [--histogram 10] [--trace file.sft]\n"
+            + "       Batch sweep --input file.graphml --seeds A.v1,B.v7 [--prob-a 30] [--prob-b 30]\n"
+            + "                   [--prob-ab 0:100:10] [--trials 100] [--threads n] [--seed n]\n"
+            + "       Batch threshold --input file.graphml --seeds A.v1,B.v7 [--vary ab|<layer>] [--level 50]\n"
+            + "                   [--metric total] [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--range 0:100]\n"
+            + "                   [--probes 3] [--max-trials 2000] [--z 1.96] [--threads n] [--seed n]\n"
+            + "       Batch checkpoint --input file.graphml --seeds A.v1,B.v7 --ticks 5 --output file.sfc\n"
+            + "                   [--prob-a 30] [--prob-b 30] [--prob-ab 80] [--seed n] [--model spread|mutual]\n"
+            + "                   [--compact true]\n"
+            + "       Batch trace --input file.graphml --trace file.sft [--trial n]\n"
+            + "       Batch centrality --input file.graphml [--network all|A|B] [--samples k] [--sort betweenness]\n"
+            + "                   [--top n] [--threads n] [--seed n]\n"
+            + "       Batch convert --input file.graphml --output file.sfg\n"
+            + "       Batch generate --family scale_prefall --nodes 1000000 --output file.graphml|file.sfg\n"
+            + "                   [--degree 10] [--gamma 2.5] [--coupling 0.25] [--seed n]\n"
+            + "       trials, sweep, threshold and checkpoint take --off-heap true to keep the graph (if GraphML)\n"
+            + "                   and the cascade state in native memory\n"
+            + "       any --seeds may be replaced by --from file.sfc or by\n"
+            + "                   --attack random|degree|degree:A|adaptive|betweenness[:A]|closeness[:A]|core[:A]\n"
+            + "                   --count k [--attack-seed n]\n"
+            + "       layers are the input's netIDs; --prob-<layer> (--prob-a, --prob-b, ...) sets the probability\n"
+            + "                   within a layer and --prob-ab between layers, or --prob-matrix 30,80;80,30\n"
+            + "                   gives every pair, rows by source layer; --weighted true also scales them by\n"
+            + "                   the GraphML edge weight";
+    
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        
+        Options opts = new Options(args, 1);
+        
+        if (args[0].equals("trials")) {
+            trials(opts);
+        }
+        else if (args[0].equals("sweep")) {
+            sweep(opts);
+        }
+        else if (args[0].equals("threshold")) {
+            threshold(opts);
+        }
+        else if (args[0].equals("checkpoint")) {
+            checkpoint(opts);
+        }
+        else if (args[0].equals("trace")) {
+            trace(opts);
+        }
+        else if (args[0].equals("centrality")) {
+            centrality(opts);
+        }
+        else if (args[0].equals("convert")) {
+            convert(opts);
+        }
+        else if (args[0].equals("generate")) {
+            generate(opts);
+        }
+        else {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+    
+    private static void trials(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        CascadeCheckpoint from = parseStart(graph, opts);
+        Propagation propagation = parsePropagation(graph, opts);
+        int trials = opts.getInt("trials", 1000);
+        double[] quantiles = opts.getDoubles("quantiles", new double[] { 0.05, 0.5, 0.95 });
+        int histogram = opts.getInt("histogram", 0);
+        
+        if (histogram < 0 || histogram > 0 && Distribution.BINS % histogram != 0) {
+            System.err.println("--histogram must divide " + Distribution.BINS + ". Exiting.");
+            System.exit(1);
+        }
+        
+        TrialRunner runner = new TrialRunner(graph, propagation, from);
+        runner.setModel(parseModel(graph, propagation, opts));
+        
+        // giant component sizes are what the mutual model is about, so it reports them by default
+        boolean mutual = opts.get("model", "spread").equals("mutual");
+        runner.setGiantComponents(Boolean.parseBoolean(opts.get("giant", mutual ? "true" : "false")));
+        runner.setMaxTicks(opts.getInt("max-ticks", runner.getMaxTicks()));
+        runner.setSeed(opts.getLong("seed", runner.getSeed()));
+        runner.setOffHeap(offHeap(opts));
+        
+        // 64 trials per engine run; only the spreading model without giant components is bit sliced
+        BitParallelRunner bitRunner = null;
+        if (Boolean.parseBoolean(opts.get("bit-parallel", "false"))) {
+            boolean giant = Boolean.parseBoolean(opts.get("giant", "false"));
+            boolean compact = Boolean.parseBoolean(opts.get("compact", "false"));
+            
+            if (mutual || giant || compact || opts.get("trace", null) != null) {
+                System.err.println("--bit-parallel only runs the spread model, without --giant, --compact or --trace. Exiting.");
+                System.exit(1);
+            }
+            
+            bitRunner = new BitParallelRunner(graph, propagation, from);
+            bitRunner.setMaxTicks(runner.getMaxTicks());
+            bitRunner.setSeed(runner.getSeed());
+            bitRunner.setOffHeap(offHeap(opts));
+        }
+        
+        ResultSink results = null;
+        String resultsFile = opts.get("results", null);
+        
+        try {
+            if (resultsFile != null) {
+                results = ResultSink.open(resultsFile, runner.getMetricNames());
+                runner.setResults(results);
+                if (bitRunner != null)
+                    bitRunner.setResults(results);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error opening " + resultsFile + ". Exiting.");
+            System.exit(1);
+        }
+        
+        TraceWriter trace = null;
+        String traceFile = opts.get("trace", null);
+        
+        try {
+            if (traceFile != null) {
+                trace = new TraceWriter(traceFile, graph);
+                runner.setTrace(trace);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error opening " + traceFile + ". Exiting.");
+            System.exit(1);
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(opts.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        int first = opts.getInt("first-trial", 0);
+        
+        long start = System.nanoTime();
+        TrialStatistics stats = null;
+        try {
+            stats = bitRunner != null ? bitRunner.run(first, trials, pool) : runner.run(first, trials, pool);
+        }
+        catch (CancellationException e) {
+            System.err.println("Run interrupted, " + resultsFile + " is incomplete. Exiting.");
+            System.exit(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        pool.shutdown();
+        
+        if (results != null) {
+            try {
+                results.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Error writing " + resultsFile + ". Exiting.");
+                System.exit(1);
+            }
+        }
+        
+        if (trace != null) {
+            try {
+                trace.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Error writing " + traceFile + ". Exiting.");
+                System.exit(1);
+            }
+        }
+        
+        System.err.println("seed: " + runner.getSeed());
+        System.err.println(trials + " trials on " + pool.getParallelism() + " threads in " + (elapsed / 1000000) + " ms");
+        
+        printStatistics(System.out, stats, quantiles, runner.getFirstTick());
+        
+        if (histogram > 0) {
+            System.out.println();
+            printHistogram(System.out, stats, histogram);
+        }
+    }
+    
+    private static void sweep(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        CascadeCheckpoint from = parseStart(graph, opts);
+        final double[] quantiles = opts.getDoubles("quantiles", new double[] { 0.05, 0.5, 0.95 });
+        
+        // the grid varies every layer given a --prob-<layer> (a single value is a one point range)
+        // and --prob-ab
+        final int layers = graph.getNodeLayerCount();
+        boolean[] swept = new boolean[layers];
+        int sweptCount = 0;
+        
+        for (int l = 0; l < layers; ++l) {
+            swept[l] = opts.get("prob-" + graph.getNodeLayerName(l).toLowerCase(), null) != null;
+            if (swept[l])
+                sweptCount++;
+        }
+        
+        int[] sweptLayers = new int[sweptCount];
+        int[][] sweptValues = new int[sweptCount][];
+        
+        for (int l = 0, i = 0; l < layers; ++l) {
+            if (swept[l]) {
+                sweptLayers[i] = l;
+                sweptValues[i++] = opts.getRange("prob-" + graph.getNodeLayerName(l).toLowerCase(), null);
+            }
+        }
+        
+        // nothing crosses between layers on a single layer graph
+        int[] inter = layers > 1 ? opts.getRange("prob-ab", "0:100:10") : new int[] { 0 };
+        
+        ParameterSweep sweep = new ParameterSweep(graph, from, sweptLayers, sweptValues, inter);
+        sweep.setTrials(opts.getInt("trials", sweep.getTrials()));
+        sweep.setMaxTicks(opts.getInt("max-ticks", 10000));
+        sweep.setSeed(opts.getLong("seed", sweep.getSeed()));
+        sweep.setOffHeap(offHeap(opts));
+        sweep.setBase(parsePropagation(graph, opts, swept));
+        
+        ForkJoinPool pool = new ForkJoinPool(opts.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        
+        System.err.println("seed: " + sweep.getSeed());
+        System.err.println(sweep.size() + " points x " + sweep.getTrials() + " trials on " + pool.getParallelism() + " threads");
+        
+        final DecimalFormat decFmt = new DecimalFormat("###.####");
+        decFmt.setMinimumFractionDigits(1);
+        
+        // every layer's probability, swept or not, then the one between layers
+        StringBuilder sb = new StringBuilder();
+        for (int l = 0; l < layers; ++l)
+            sb.append("prob").append(graph.getNodeLayerName(l)).append('\t');
+        if (layers > 1)
+            sb.append("probAB\t");
+        sb.append("trials");
+        for (String name : CascadeMetrics.names(graph))
+            appendHeader(sb, name, quantiles);
+        System.out.println(sb);
+        
+        long start = System.nanoTime();
+        
+        sweep.run(pool, new ParameterSweep.Listener() {
+            
+            @Override
+            public void pointDone(Propagation p, TrialStatistics stats) {
+                StringBuilder row = new StringBuilder();
+                for (int l = 0; l < layers; ++l)
+                    row.append(p.getIntra(l)).append('\t');
+                if (layers > 1)
+                    row.append(p.getInter()).append('\t');
+                row.append(stats.getTrialCount());
+                
+                for (Distribution d : stats.summarizeFinal())
+                    appendDistribution(row, d, quantiles, decFmt);
+                
+                System.out.println(row);
+                System.out.flush();
+            }
+        });
+        
+        pool.shutdown();
+        
+        System.err.println("sweep done in " + ((System.nanoTime() - start) / 1000000) + " ms");
+    }
+    
+    private static void threshold(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        CascadeCheckpoint from = parseStart(graph, opts);
+        Propagation propagation = parsePropagation(graph, opts);
+        double level = opts.getDoubles("level", new double[] { 50 })[0];
+        
+        // a layer name, as in --prob-<layer>, or ab for between layers, the default unless there is
+        // only one layer
+        int layers = graph.getNodeLayerCount();
+        String vary = opts.get("vary", layers > 1 ? "ab" : graph.getNodeLayerName(0));
+        int v = ThresholdFinder.PROB_AB;
+        boolean known = vary.equalsIgnoreCase("ab") && layers > 1;
+        
+        for (int l = 0; l < layers && !known; ++l) {
+            if (graph.getNodeLayerName(l).equalsIgnoreCase(vary)) {
+                v = l;
+                known = true;
+            }
+        }
+        
+        if (!known) {
+            StringBuilder choices = new StringBuilder();
+            for (int l = 0; l < layers; ++l)
+                choices.append(l > 0 ? ", " : "").append(graph.getNodeLayerName(l).toLowerCase());
+            if (layers > 1)
+                choices.append(" or ab");
+            
+            System.err.println("Bad value for --vary: '" + vary + "' (" + choices + "). Exiting.");
+            System.exit(1);
+        }
+        
+        String metricName = opts.get("metric", "total");
+        int metric = Arrays.asList(CascadeMetrics.names(graph)).indexOf(metricName);
+        if (metric < 0) {
+            System.err.println("Unknown metric '" + metricName + "', one of " + Arrays.toString(CascadeMetrics.names(graph)) + ". Exiting.");
+            System.exit(1);
+        }
+        
+        int[] range = opts.getRange("range", "0:100");
+        
+        ThresholdFinder finder = new ThresholdFinder(graph, from, propagation, v);
+        finder.setMetric(metric);
+        finder.setLevel(level);
+        finder.setBracket(range[0], range[range.length - 1]);
+        finder.setProbes(opts.getInt("probes", 3));
+        finder.setMaxTrials(opts.getInt("max-trials", 2000));
+        finder.setZ(opts.getDoubles("z", new double[] { 1.96 })[0]);
+        finder.setMaxTicks(opts.getInt("max-ticks", 10000));
+        finder.setSeed(opts.getLong("seed", finder.getSeed()));
+        finder.setOffHeap(offHeap(opts));
+        
+        ForkJoinPool pool = new ForkJoinPool(opts.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        
+        long start = System.nanoTime();
+        ThresholdFinder.Result result = finder.run(pool);
+        long elapsed = System.nanoTime() - start;
+        
+        pool.shutdown();
+        
+        System.err.println("seed: " + finder.getSeed());
+        System.err.println(result.getProbes().size() + " probes, " + result.getTrialCount() + " trials on " + pool.getParallelism() + " threads in " + (elapsed / 1000000) + " ms");
+        
+        DecimalFormat decFmt = new DecimalFormat("###.####");
+        decFmt.setMinimumFractionDigits(1);
+        
+        String column = v == ThresholdFinder.PROB_AB ? "AB" : graph.getNodeLayerName(v);
+        System.out.println("prob" + column + "\ttrials\t" + metricName + ".mean\t" + metricName + ".ci\tside");
+        for (ThresholdFinder.Probe p : result.getProbes()) {
+            System.out.println(p.getProbability() + "\t" + p.getTrialCount() + "\t" + decFmt.format(p.getMean()) + "\t" + decFmt.format(p.getHalfWidth()) + "\t"
+                    + (p.isAbove() ? "above" : "below"));
+        }
+        
+        if (result.isFound()) {
+            System.out.println("threshold\t" + result.getLow().getProbability() + ".." + result.getHigh().getProbability() + "\testimate\t"
+                    + decFmt.format(result.getEstimate()));
+        }
+        else {
+            System.out.println("threshold\tnone: " + metricName + " does not cross " + decFmt.format(level) + " in " + range[0] + ".." + range[range.length - 1]);
+        }
+    }
+    
+    private static void checkpoint(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        CascadeCheckpoint from = parseStart(graph, opts);
+        Propagation propagation = parsePropagation(graph, opts);
+        int ticks = opts.getInt("ticks", 1);
+        String outFile = opts.get("output", null);
+        
+        if (outFile == null) {
+            System.err.println("No --output given. Exiting.");
+            System.exit(1);
+        }
+        
+        CascadeModel engine = parseModel(graph, propagation, opts);
+        CascadeState state = engine.newState(offHeap(opts));
+        state.restore(from);
+        
+        // a checkpoint carries its own stream on; fresh seeds need one
+        if (opts.get("from", null) == null || opts.get("seed", null) != null) {
+            long seed = opts.getLong("seed", System.nanoTime());
+            state.getRandom().setState(seed);
+            System.err.println("seed: " + seed);
+        }
+        
+        while (!state.isDone() && state.getTick() < ticks)
+            engine.step(state);
+        
+        try {
+            CheckpointFile.write(state.checkpoint(), outFile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error writing " + outFile + ". Exiting.");
+            System.exit(1);
+        }
+        
+        System.err.println("tick " + state.getTick() + ": " + state.getFailedCount() + " failed, " + state.getFrontierSize() + " in frontier");
+    }
+    
+    private static void trace(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        String traceFile = opts.get("trace", null);
+        
+        if (traceFile == null) {
+            System.err.println("No --trace given. Exiting.");
+            System.exit(1);
+        }
+        
+        TraceReader reader = null;
+        
+        try {
+            reader = TraceReader.open(traceFile);
+            
+            if (!reader.fits(graph)) {
+                System.err.println(traceFile + " was recorded on a different graph. Exiting.");
+                System.exit(1);
+            }
+            
+            if (opts.get("trial", null) == null) {
+                System.out.println("trial\tfirstTick\tlastTick\tfailed");
+                
+                for (int i = 0; i < reader.getTrialCount(); ++i) {
+                    CascadeTrace t = reader.read(i);
+                    System.out.println(t.getTrial() + "\t" + t.getFirstTick() + "\t" + t.getLastTick() + "\t" + t.getFailedCount());
+                }
+                
+                return;
+            }
+            
+            int i = reader.find(opts.getLong("trial", 0));
+            if (i < 0) {
+                System.err.println("No trial " + opts.get("trial", null) + " in " + traceFile + ". Exiting.");
+                System.exit(1);
+            }
+            
+            CascadeTrace t = reader.read(i);
+            StringBuilder sb = new StringBuilder();
+            
+            System.out.println("tick\tnode\tlayer\tsource\tsourceLayer");
+            for (int f = 0; f < t.getFailedCount(); ++f) {
+                sb.setLength(0);
+                sb.append(t.getTick(f)).append('\t').append(graph.getNodeName(t.getNode(f))).append('\t').append(graph.getNodeLayerName(t.getLayer(f)));
+                
+                if (t.getSource(f) >= 0)
+                    sb.append('\t').append(graph.getNodeName(t.getSource(f))).append('\t').append(graph.getNodeLayerName(t.getSourceLayer(f)));
+                else
+                    sb.append("\t-\t-");
+                
+                System.out.println(sb);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error reading " + traceFile + ". Exiting.");
+            System.exit(1);
+        }
+        finally {
+            try {
+                if (reader != null)
+                    reader.close();
+            }
+            catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+    
+    private static void centrality(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        String network = opts.get("network", "all");
+        String sort = opts.get("sort", "betweenness");
+        Centrality centrality = null;
+        
+        try {
+            centrality = Centrality.forNetwork(graph, network);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " (all or a node layer). Exiting.");
+            System.exit(1);
+        }
+        
+        centrality.setSamples(opts.getInt("samples", 0));
+        centrality.setSeed(opts.getLong("seed", centrality.getSeed()));
+        
+        ForkJoinPool pool = new ForkJoinPool(opts.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        
+        long start = System.nanoTime();
+        Centrality.Scores scores = centrality.compute(pool);
+        int[] core = centrality.coreNumbers();
+        long elapsed = System.nanoTime() - start;
+        
+        pool.shutdown();
+        
+        if (!scores.isExact())
+            System.err.println("seed: " + centrality.getSeed());
+        System.err.println(scores.getSourceCount() + " of " + centrality.size() + " sources on " + pool.getParallelism() + " threads in " + (elapsed / 1000000) + " ms");
+        
+        double[] key = null;
+        if (sort.equals("betweenness")) {
+            key = scores.getBetweenness();
+        }
+        else if (sort.equals("closeness")) {
+            key = scores.getCloseness();
+        }
+        else if (sort.equals("core")) {
+            key = new double[core.length];
+            for (int v = 0; v < core.length; ++v)
+                key[v] = core[v];
+        }
+        else {
+            System.err.println("Bad value for --sort: '" + sort + "' (betweenness, closeness or core). Exiting.");
+            System.exit(1);
+        }
+        
+        DecimalFormat decFmt = new DecimalFormat("0.######");
+        
+        System.out.println("node\tlayer\tdegree\tbetweenness\tcloseness\tcore");
+        for (int v : SeedStrategy.byScore(key).select(graph, opts.getInt("top", centrality.size()), null)) {
+            if (!centrality.contains(v))
+                continue;
+            
+            System.out.println(graph.getNodeName(v) + "\t" + graph.getNodeLayerName(graph.getNodeLayer(v)) + "\t" + centrality.getDegree(v) + "\t"
+                    + decFmt.format(scores.getBetweenness()[v]) + "\t" + decFmt.format(scores.getCloseness()[v]) + "\t" + core[v]);
+        }
+    }
+    
+    private static void convert(Options opts) {
+        CascadeGraph graph = loadGraph(opts);
+        String outFile = opts.get("output", null);
+        
+        if (outFile == null) {
+            System.err.println("No --output given. Exiting.");
+            System.exit(1);
+        }
+        
+        try {
+            GraphSnapshot.write(graph, outFile);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error writing snapshot. Exiting.");
+            System.exit(1);
+        }
+    }
+    
+    private static void generate(Options opts) {
+        String outFile = opts.get("output", null);
+        
+        if (outFile == null) {
+            System.err.println("No --output given. Exiting.");
+            System.exit(1);
+        }
+        
+        NetworkGenerator generator = null;
+        
+        try {
+            generator = NetworkGenerator.forFamily(opts.get("family", "erdos_rand"), opts.getInt("nodes", 10000));
+            generator.setMeanDegree(opts.getDoubles("degree", new double[] { 10 })[0]);
+            generator.setGamma(opts.getDoubles("gamma", new double[] { 2.5 })[0]);
+            generator.setCoupling(opts.getDoubles("coupling", new double[] { 0.25 })[0]);
+            generator.setSeed(opts.getLong("seed", generator.getSeed()));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ". Exiting.");
+            System.exit(1);
+        }
+        
+        // a snapshot that could not be opened again would only show after the whole graph is drawn
+        if (!outFile.endsWith(".graphml") && generator.getExpectedEdgeCount() > GraphSnapshot.MAX_EDGES) {
+            System.err.println("About " + generator.getExpectedEdgeCount() + " edges expected, a snapshot holds at most " + GraphSnapshot.MAX_EDGES + "; write .graphml or use fewer nodes. Exiting.");
+            System.exit(1);
+        }
+        
+        System.err.println("seed: " + generator.getSeed());
+        
+        try {
+            long start = System.nanoTime();
+            
+            if (outFile.endsWith(".graphml"))
+                new GraphMLWriter().write(generator, outFile);
+            else
+                GraphSnapshot.write(generator, outFile);
+            
+            System.err.println("wrote " + generator.getNodeCount() + " nodes in " + ((System.nanoTime() - start) / 1000000) + " ms");
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error writing " + outFile + ". Exiting.");
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * tab separated per tick summary: tick, then mean, variance and each quantile per metric
+     */
+    static void printStatistics(PrintStream out, TrialStatistics stats, double[] quantiles, int firstTick) {
+        DecimalFormat decFmt = new DecimalFormat("###.####");
+        decFmt.setMinimumFractionDigits(1);
+        
+        StringBuilder sb = new StringBuilder("tick");
+        for (String name : stats.getNames())
+            appendHeader(sb, name, quantiles);
+        out.println(sb);
+        
+        Distribution[][] ticks = stats.summarize();
+        for (int t = 0; t < ticks.length; ++t) {
+            sb.setLength(0);
+            sb.append(firstTick + t);
+            
+            for (Distribution d : ticks[t])
+                appendDistribution(sb, d, quantiles, decFmt);
+            out.println(sb);
+        }
+    }
+    
+    /**
+     * final values as counts of trials per bin, one row per bin from 0 to 100 percent and one column
+     * per metric
+     */
+    static void printHistogram(PrintStream out, TrialStatistics stats, int bins) {
+        StringBuilder sb = new StringBuilder("from\tto");
+        for (String name : stats.getNames())
+            sb.append('\t').append(name);
+        out.println(sb);
+        
+        Distribution[] last = stats.summarizeFinal();
+        long[][] counts = new long[last.length][];
+        for (int m = 0; m < last.length; ++m)
+            counts[m] = last[m].getHistogram(bins);
+        
+        DecimalFormat binFmt = new DecimalFormat("###.#");
+        double width = Distribution.RANGE / bins;
+        
+        for (int b = 0; b < bins; ++b) {
+            sb.setLength(0);
+            sb.append(binFmt.format(b * width)).append('\t').append(binFmt.format((b + 1) * width));
+            
+            for (long[] c : counts)
+                sb.append('\t').append(c[b]);
+            out.println(sb);
+        }
+    }
+    
+    private static void appendHeader(StringBuilder sb, String name, double[] quantiles) {
+        sb.append('\t').append(name).append(".mean");
+        sb.append('\t').append(name).append(".var");
+        for (double q : quantiles)
+            sb.append('\t').append(name).append(".p").append(new DecimalFormat("#.##").format(q * 100));
+    }
+    
+    private static void appendDistribution(StringBuilder sb, Distribution d, double[] quantiles, DecimalFormat decFmt) {
+        sb.append('\t').append(decFmt.format(d.getMean()));
+        sb.append('\t').append(decFmt.format(d.getVariance()));
+        for (double q : quantiles)
+            sb.append('\t').append(decFmt.format(d.getQuantile(q)));
+    }
+    
+    /**
+     * --input, as a snapshot or GraphML; with --off-heap true GraphML is loaded into direct buffers
+     */
+    static CascadeGraph loadGraph(Options opts) {
+        String inFile = opts.get("input", null);
+        
+        if (inFile == null) {
+            System.err.println("No --input given. Exiting.");
+            System.exit(1);
+        }
+        
+        try {
+            long start = System.nanoTime();
+            GraphMLLoader loader = new GraphMLLoader();
+            loader.setDirect(offHeap(opts));
+            
+            CascadeGraph graph = GraphSnapshot.isSnapshot(inFile) ? GraphSnapshot.open(inFile) : loader.load(inFile);
+            
+            System.err.println("loaded " + graph.getNodeCount() + " nodes, " + graph.getEdgeCount() + " edges in " + ((System.nanoTime() - start) / 1000000) + " ms");
+            
+            return graph;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error loading graph. Exiting.");
+            System.exit(1);
+            return null;
+        }
+    }
+    
+    static boolean offHeap(Options opts) {
+        return Boolean.parseBoolean(opts.get("off-heap", "false"));
+    }
+    
+    /**
+     * --prob-matrix if given, otherwise --prob-&lt;layer&gt; (--prob-a, --prob-b, ...) within each
+     * layer and --prob-ab between any two; weighted by edge weight with --weighted true
+     */
+    static Propagation parsePropagation(CascadeGraph graph, Options opts) {
+        return parsePropagation(graph, opts, null);
+    }
+    
+    /**
+     * @param swept
+     *            per layer, whether its --prob-&lt;layer&gt; holds a sweep range rather than a value,
+     *            or null outside a sweep; in a sweep --prob-ab is a range too, and swept entries are
+     *            left at 0 for the sweep to fill in
+     */
+    static Propagation parsePropagation(CascadeGraph graph, Options opts, boolean[] swept) {
+        String matrix = opts.get("prob-matrix", null);
+        boolean weighted = Boolean.parseBoolean(opts.get("weighted", "false"));
+        
+        if (matrix == null) {
+            int[] intra = new int[graph.getNodeLayerCount()];
+            for (int l = 0; l < intra.length; ++l) {
+                if (swept == null || !swept[l])
+                    intra[l] = opts.getInt("prob-" + graph.getNodeLayerName(l).toLowerCase(), 30);
+            }
+            
+            return new Propagation(intra, swept != null ? 0 : opts.getInt("prob-ab", 80)).weighted(weighted);
+        }
+        
+        Propagation propagation = null;
+        
+        try {
+            propagation = Propagation.parse(matrix);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Bad value for --prob-matrix: '" + matrix + "' (" + e.getMessage() + "). Exiting.");
+            System.exit(1);
+        }
+        
+        if (propagation.getLayerCount() != graph.getNodeLayerCount()) {
+            System.err.println("--prob-matrix is " + propagation.getLayerCount() + " x " + propagation.getLayerCount() + ", the graph has " + graph.getNodeLayerCount() + " layers. Exiting.");
+            System.exit(1);
+        }
+        
+        return propagation.weighted(weighted);
+    }
+    
+    /**
+     * --model spread (the default, probabilistic) or mutual; spread reads compressed rows with
+     * --compact true
+     */
+    static CascadeModel parseModel(CascadeGraph graph, Propagation propagation, Options opts) {
+        String model = opts.get("model", "spread");
+        
+        if (model.equals("spread") && Boolean.parseBoolean(opts.get("compact", "false"))) {
+            if (propagation.isWeighted()) {
+                System.err.println("--compact does not keep edge weights for --weighted. Exiting.");
+                System.exit(1);
+            }
+            
+            CompactAdjacency adjacency = CompactAdjacency.encode(graph, offHeap(opts));
+            System.err.println("compact adjacency: " + adjacency.getByteSize() + " bytes, " + adjacency.getPlainByteSize() + " plain");
+            
+            return new CompactCascadeEngine(adjacency, propagation);
+        }
+        if (model.equals("spread"))
+            return new CascadeEngine(graph, propagation);
+        if (model.equals("mutual"))
+            return new MutualGiantEngine(graph);
+        
+        System.err.println("Bad value for --model: '" + model + "' (spread or mutual). Exiting.");
+        System.exit(1);
+        
+        return null;
+    }
+    
+    /**
+     * --from checkpoint if given, otherwise the --attack or --seeds nodes failed at tick 0
+     */
+    static CascadeCheckpoint parseStart(CascadeGraph graph, Options opts) {
+        String file = opts.get("from", null);
+        
+        if (file == null && opts.get("attack", null) != null)
+            return CascadeCheckpoint.forSeeds(graph, attackSeeds(graph, opts));
+        if (file == null)
+            return CascadeCheckpoint.forSeeds(graph, parseSeeds(graph, opts.get("seeds", null)));
+        
+        CascadeCheckpoint checkpoint = null;
+        
+        try {
+            checkpoint = CheckpointFile.read(file);
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage() + ". Exiting.");
+            System.exit(1);
+        }
+        
+        if (!checkpoint.fits(graph)) {
+            System.err.println(file + " was not taken on this graph. Exiting.");
+            System.exit(1);
+        }
+        
+        return checkpoint;
+    }
+    
+    /**
+     * --count nodes picked by the --attack strategy
+     */
+    static int[] attackSeeds(CascadeGraph graph, Options opts) {
+        String name = opts.get("attack", null);
+        SeedStrategy strategy = null;
+        
+        try {
+            strategy = SeedStrategy.forName(name, graph);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ". Exiting.");
+            System.exit(1);
+        }
+        
+        long seed = opts.getLong("attack-seed", System.nanoTime());
+        if (name.equals("random"))
+            System.err.println("attack seed: " + seed);
+        
+        int[] seeds = strategy.select(graph, opts.getInt("count", 1), new RandomStream(seed));
+        
+        if (seeds.length == 0) {
+            System.err.println("No nodes to attack. Exiting.");
+            System.exit(1);
+        }
+        
+        return seeds;
+    }
+    
+    /**
+     * comma separated node names or indices
+     */
+    static int[] parseSeeds(CascadeGraph graph, String spec) {
+        if (spec == null) {
+            System.err.println("No --seeds given. Exiting.");
+            System.exit(1);
+        }
+        
+        String[] tokens = spec.split(",");
+        int[] seeds = new int[tokens.length];
+        
+        for (int i = 0; i < tokens.length; ++i) {
+            String token = tokens[i].trim();
+            int node = graph.findNode(token);
+            
+            if (node < 0) {
+                try {
+                    node = Integer.parseInt(token);
+                }
+                catch (NumberFormatException e) {
+                    node = -1;
+                }
+            }
+            
+            if (node < 0 || node >= graph.getNodeCount()) {
+                System.err.println("Unknown seed node '" + token + "'. Exiting.");
+                System.exit(1);
+            }
+            
+            seeds[i] = node;
+        }
+        
+        return seeds;
+    }
+    
+    /**
+     * --name value pairs following the mode argument
+     */
+    static class Options {
+        
+        private final Map<String, String> values = new HashMap<>();
+        
+        Options(String[] args, int from) {
+            for (int i = from; i < args.length; ++i) {
+                if (!args[i].startsWith("--") || i + 1 == args.length) {
+                    System.err.println("Bad argument '" + args[i] + "'.");
+                    System.err.println(USAGE);
+                    System.exit(1);
+                }
+                
+                values.put(args[i].substring(2), args[++i]);
+            }
+        }
+        
+        String get(String name, String def) {
+            String v = values.get(name);
+            return v != null ? v : def;
+        }
+        
+        int getInt(String name, int def) {
+            String v = values.get(name);
+            
+            try {
+                return v != null ? Integer.parseInt(v) : def;
+            }
+            catch (NumberFormatException e) {
+                System.err.println("Bad value for --" + name + ": '" + v + "'. Exiting.");
+                System.exit(1);
+                return def;
+            }
+        }
+        
+        long getLong(String name, long def) {
+            String v = values.get(name);
+            
+            try {
+                return v != null ? Long.parseLong(v) : def;
+            }
+            catch (NumberFormatException e) {
+                System.err.println("Bad value for --" + name + ": '" + v + "'. Exiting.");
+                System.exit(1);
+                return def;
+            }
+        }
+        
+        int[] getRange(String name, String def) {
+            String v = get(name, def);
+            
+            try {
+                return ParameterSweep.parseRange(v);
+            }
+            catch (NumberFormatException e) {
+                System.err.println("Bad value for --" + name + ": '" + v + "'. Exiting.");
+                System.exit(1);
+                return null;
+            }
+        }
+        
+        double[] getDoubles(String name, double[] def) {
+            String v = values.get(name);
+            
+            if (v == null)
+                return def;
+            
+            String[] tokens = v.split(",");
+            double[] out = new double[tokens.length];
+            
+            try {
+                for (int i = 0; i < tokens.length; ++i)
+                    out[i] = Double.parseDouble(tokens[i].trim());
+            }
+            catch (NumberFormatException e) {
+                System.err.println("Bad value for --" + name + ": '" + v + "'. Exiting.");
+                System.exit(1);
+            }
+            
+            return out;
+        }
+    }
+}
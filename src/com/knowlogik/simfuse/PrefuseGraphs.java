@@ -0,0 +1,52 @@
+package com.knowlogik.simfuse;
+
+import prefuse.data.Edge;
+import prefuse.data.Graph;
+import prefuse.data.Node;
+import prefuse.data.io.DataIOException;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.GraphBuilder;
+
+/**
+ * Bridges prefuse graphs to the headless engine.
+ */
+public final class PrefuseGraphs {
+    
+    private PrefuseGraphs() {
+    }
+    
+    /**
+     * mirror a prefuse graph into an engine graph; node rows double as engine node indices, and
+     * every distinct netID becomes a layer
+     */
+    public static CascadeGraph toCascadeGraph(Graph graph) throws DataIOException {
+        GraphBuilder builder = new GraphBuilder();
+        
+        try {
+            for (int i = 0; i < graph.getNodeCount(); ++i) {
+                Node node = graph.getNode(i);
+                
+                if (node.getString("netID") == null)
+                    throw new DataIOException("Node without netID");
+                
+                builder.addNode(node.getString("name"), builder.addNodeLayer(node.getString("netID")));
+            }
+            
+            for (int i = 0; i < graph.getEdgeCount(); ++i) {
+                Edge edge = graph.getEdge(i);
+                
+                if (edge.getString("netID") == null)
+                    throw new DataIOException("Edge without netID");
+                
+                int layer = builder.addEdgeLayer(edge.getString("netID"));
+                builder.addEdge(edge.getSourceNode().getRow(), edge.getTargetNode().getRow(), layer, edge.canGetInt("weight") ? edge.getInt("weight") : 1);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new DataIOException(e.getMessage());
+        }
+        
+        return builder.build();
+    }
+}
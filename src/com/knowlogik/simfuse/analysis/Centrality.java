@@ -0,0 +1,404 @@
+package com.knowlogik.simfuse.analysis;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.RandomStream;
+
+/**
+ * Betweenness, closeness and k-core numbers of one network of a {@link CascadeGraph}: a single
+ * layer (its nodes and intra-layer edges) or the combined graph.
+ * 
+ * Betweenness and closeness come out of the same pass of Brandes' algorithm, one unweighted BFS per
+ * source. Sources are split into ranges on a fork/join pool; each leaf task keeps its own
+ * accumulators, which are summed on the way back up in a fixed order, so results do not depend on
+ * the pool size. For huge graphs a uniform sample of sources gives unbiased estimates instead: the
+ * betweenness sums are scaled up by the sampling ratio, and closeness uses the distances from the
+ * sampled sources (the graph is undirected, so they are the distances to them as well).
+ * 
+ * Closeness is the Wasserman-Faust variant, which stays meaningful on disconnected networks: the
+ * fraction of other nodes reached divided by the mean distance to them. Nodes outside the network
+ * score 0 throughout.
+ */
+public class Centrality {
+    
+    // number of source ranges the work is split into
+    private static final int LEAVES = 256;
+    
+    private final CascadeGraph graph;
+    private final int nodeLayer;
+    
+    // the network's adjacency, CSR over all node indices
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] nodes;
+    
+    private int samples = 0;
+    private long seed = System.nanoTime();
+    
+    /**
+     * @param nodeLayer
+     *            node layer code, or -1 for the combined graph
+     */
+    public Centrality(CascadeGraph graph, int nodeLayer) {
+        this.graph = graph;
+        this.nodeLayer = nodeLayer;
+        
+        int n = graph.getNodeCount();
+        
+        // a layer's own edges are the ones named after it
+        int edgeLayer = -1;
+        if (nodeLayer >= 0) {
+            for (int l = 0; l < graph.getEdgeLayerCount(); ++l) {
+                if (graph.getEdgeLayerName(l).equals(graph.getNodeLayerName(nodeLayer)))
+                    edgeLayer = l;
+            }
+        }
+        
+        offsets = new int[n + 1];
+        int count = 0;
+        for (int v = 0; v < n; ++v) {
+            offsets[v] = count;
+            
+            if (contains(v)) {
+                for (int k = graph.getAdjacencyStart(v), end = graph.getAdjacencyEnd(v); k < end; ++k) {
+                    if (nodeLayer < 0 || (graph.getEdgeLayer(graph.getEdge(k)) == edgeLayer && contains(graph.getTarget(k))))
+                        count++;
+                }
+            }
+        }
+        offsets[n] = count;
+        
+        targets = new int[count];
+        int size = 0;
+        for (int v = 0, k2 = 0; v < n; ++v) {
+            if (!contains(v))
+                continue;
+            
+            size++;
+            for (int k = graph.getAdjacencyStart(v), end = graph.getAdjacencyEnd(v); k < end; ++k) {
+                if (nodeLayer < 0 || (graph.getEdgeLayer(graph.getEdge(k)) == edgeLayer && contains(graph.getTarget(k))))
+                    targets[k2++] = graph.getTarget(k);
+            }
+        }
+        
+        nodes = new int[size];
+        for (int v = 0, i = 0; v < n; ++v) {
+            if (contains(v))
+                nodes[i++] = v;
+        }
+    }
+    
+    /**
+     * @param network
+     *            a node layer name, or "all" for the combined graph
+     */
+    public static Centrality forNetwork(CascadeGraph graph, String network) {
+        if (network.equals("all"))
+            return new Centrality(graph, -1);
+        
+        for (int l = 0; l < graph.getNodeLayerCount(); ++l) {
+            if (graph.getNodeLayerName(l).equals(network))
+                return new Centrality(graph, l);
+        }
+        
+        throw new IllegalArgumentException("Unknown network '" + network + "'");
+    }
+    
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    /** number of nodes in the network */
+    public int size() {
+        return nodes.length;
+    }
+    
+    /** degree within the network */
+    public int getDegree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+    
+    public boolean contains(int node) {
+        return nodeLayer < 0 || graph.getNodeLayer(node) == nodeLayer;
+    }
+    
+    /** sources to sample; 0 (the default) or at least the network size runs them all */
+    public void setSamples(int samples) {
+        this.samples = samples;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    /** seed for picking the sampled sources */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /** runs on the common pool */
+    public Scores compute() {
+        return compute(ForkJoinPool.commonPool());
+    }
+    
+    public Scores compute(ForkJoinPool pool) {
+        int[] sources = nodes;
+        
+        if (samples > 0 && samples < nodes.length) {
+            // partial Fisher-Yates; sorted so the leaves walk memory in order
+            sources = nodes.clone();
+            RandomStream random = new RandomStream(seed);
+            
+            for (int i = 0; i < samples; ++i) {
+                int j = i + random.nextInt(sources.length - i);
+                int t = sources[i];
+                sources[i] = sources[j];
+                sources[j] = t;
+            }
+            
+            sources = Arrays.copyOf(sources, samples);
+            Arrays.sort(sources);
+        }
+        
+        // a fixed split, not one sized to the pool, keeps the summation order and so the results
+        // the same on any number of threads
+        int grain = Math.max(1, (sources.length + LEAVES - 1) / LEAVES);
+        Accumulator acc = pool.invoke(new SourceTask(sources, 0, sources.length, grain));
+        
+        return new Scores(acc, sources);
+    }
+    
+    /**
+     * Core number of every node in the network (Batagelj and Zaversnik, O(m)): the largest k such
+     * that the node belongs to a subgraph where every node has degree at least k. Nodes outside the
+     * network get 0.
+     */
+    public int[] coreNumbers() {
+        int n = graph.getNodeCount();
+        int[] degree = new int[n];
+        int maxDegree = 0;
+        
+        for (int v = 0; v < n; ++v) {
+            degree[v] = offsets[v + 1] - offsets[v];
+            maxDegree = Math.max(maxDegree, degree[v]);
+        }
+        
+        // nodes sorted by current degree; start[d] is where degree d begins
+        int[] start = new int[maxDegree + 2];
+        for (int v = 0; v < n; ++v)
+            start[degree[v] + 1]++;
+        for (int d = 1; d <= maxDegree + 1; ++d)
+            start[d] += start[d - 1];
+        
+        int[] order = new int[n];
+        int[] position = new int[n];
+        int[] fill = Arrays.copyOf(start, maxDegree + 1);
+        for (int v = 0; v < n; ++v) {
+            position[v] = fill[degree[v]]++;
+            order[position[v]] = v;
+        }
+        
+        // take the lowest degree node; what is left of its degree is its core number
+        for (int i = 0; i < n; ++i) {
+            int v = order[i];
+            
+            for (int k = offsets[v]; k < offsets[v + 1]; ++k) {
+                int u = targets[k];
+                int d = degree[u];
+                
+                if (d <= degree[v])
+                    continue;
+                
+                // swap u to the front of its bucket, then move the bucket start past it
+                int p = position[u];
+                int first = start[d];
+                int w = order[first];
+                
+                order[p] = w;
+                position[w] = p;
+                order[first] = u;
+                position[u] = first;
+                
+                start[d]++;
+                degree[u]--;
+            }
+        }
+        
+        return degree;
+    }
+    
+    /**
+     * Per node betweenness and closeness of one run.
+     */
+    public class Scores {
+        
+        private final double[] betweenness;
+        private final double[] closeness;
+        private final int sourceCount;
+        
+        Scores(Accumulator acc, int[] sources) {
+            int n = graph.getNodeCount();
+            int size = nodes.length;
+            
+            sourceCount = sources.length;
+            betweenness = new double[n];
+            closeness = new double[n];
+            
+            boolean[] sampled = new boolean[n];
+            for (int s : sources)
+                sampled[s] = true;
+            
+            // each path is counted from both ends
+            double scale = sourceCount > 0 ? (double) size / sourceCount / 2 : 0;
+            
+            for (int v : nodes) {
+                betweenness[v] = acc.betweenness[v] * scale;
+                
+                int others = sourceCount - (sampled[v] ? 1 : 0);
+                int reached = acc.reached[v];
+                
+                if (others > 0 && acc.distance[v] > 0)
+                    closeness[v] = ((double) reached / others) * (reached / (double) acc.distance[v]);
+            }
+        }
+        
+        /** number of BFS sources the scores are based on */
+        public int getSourceCount() {
+            return sourceCount;
+        }
+        
+        public boolean isExact() {
+            return sourceCount == nodes.length;
+        }
+        
+        /** number of shortest paths through each node, over unordered pairs of other nodes */
+        public double[] getBetweenness() {
+            return betweenness;
+        }
+        
+        /** reached fraction over mean distance, in [0, 1] */
+        public double[] getCloseness() {
+            return closeness;
+        }
+    }
+    
+    /**
+     * sums of one leaf's sources
+     */
+    private static class Accumulator {
+        
+        final double[] betweenness;
+        final long[] distance;
+        final int[] reached;
+        
+        Accumulator(int n) {
+            betweenness = new double[n];
+            distance = new long[n];
+            reached = new int[n];
+        }
+        
+        void merge(Accumulator other) {
+            for (int v = 0; v < betweenness.length; ++v) {
+                betweenness[v] += other.betweenness[v];
+                distance[v] += other.distance[v];
+                reached[v] += other.reached[v];
+            }
+        }
+    }
+    
+    private class SourceTask extends RecursiveTask<Accumulator> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] sources;
+        private final int from;
+        private final int to;
+        private final int grain;
+        
+        SourceTask(int[] sources, int from, int to, int grain) {
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+        
+        @Override
+        protected Accumulator compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                SourceTask left = new SourceTask(sources, from, mid, grain);
+                left.fork();
+                
+                Accumulator acc = new SourceTask(sources, mid, to, grain).compute();
+                acc.merge(left.join());
+                
+                return acc;
+            }
+            
+            int n = graph.getNodeCount();
+            Accumulator acc = new Accumulator(n);
+            
+            int[] dist = new int[n];
+            double[] sigma = new double[n];
+            double[] delta = new double[n];
+            int[] queue = new int[n];
+            Arrays.fill(dist, -1);
+            
+            for (int i = from; i < to; ++i) {
+                int s = sources[i];
+                int head = 0;
+                int tail = 0;
+                
+                dist[s] = 0;
+                sigma[s] = 1;
+                queue[tail++] = s;
+                
+                // BFS, counting shortest paths
+                while (head < tail) {
+                    int v = queue[head++];
+                    
+                    for (int k = offsets[v], end = offsets[v + 1]; k < end; ++k) {
+                        int w = targets[k];
+                        
+                        if (dist[w] < 0) {
+                            dist[w] = dist[v] + 1;
+                            queue[tail++] = w;
+                        }
+                        if (dist[w] == dist[v] + 1)
+                            sigma[w] += sigma[v];
+                    }
+                }
+                
+                // dependencies in reverse BFS order; predecessors are the neighbors one step closer
+                for (int j = tail - 1; j > 0; --j) {
+                    int w = queue[j];
+                    double coeff = (1 + delta[w]) / sigma[w];
+                    
+                    for (int k = offsets[w], end = offsets[w + 1]; k < end; ++k) {
+                        int v = targets[k];
+                        
+                        if (dist[v] == dist[w] - 1)
+                            delta[v] += sigma[v] * coeff;
+                    }
+                    
+                    acc.betweenness[w] += delta[w];
+                    acc.distance[w] += dist[w];
+                    acc.reached[w]++;
+                }
+                
+                // only what this BFS touched needs resetting
+                for (int j = 0; j < tail; ++j) {
+                    int w = queue[j];
+                    dist[w] = -1;
+                    sigma[w] = 0;
+                    delta[w] = 0;
+                }
+            }
+            
+            return acc;
+        }
+    }
+}
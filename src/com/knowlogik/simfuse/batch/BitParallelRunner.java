@@ -0,0 +1,210 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.knowlogik.simfuse.engine.BitParallelEngine;
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeMetrics;
+import com.knowlogik.simfuse.engine.Propagation;
+import com.knowlogik.simfuse.engine.RandomStream;
+import com.knowlogik.simfuse.io.ResultSink;
+
+/**
+ * {@link TrialRunner} for the spreading model on a {@link BitParallelEngine}: trials go in batches
+ * of 64, one batch per engine run, and batches are spread over a fork/join pool.
+ * 
+ * Every trial still gets its own metric series, so statistics and streamed results look the same as
+ * the scalar runner's. Batch <code>b</code> draws from the stream keyed by (seed, first trial of the
+ * batch), so results do not depend on the pool size either, but do depend on where the batches
+ * start.
+ */
+public class BitParallelRunner {
+    
+    private final CascadeGraph graph;
+    private final Propagation propagation;
+    private final CascadeCheckpoint start;
+    private int maxTicks = 10000;
+    private long seed = System.nanoTime();
+    private ResultSink results = null;
+    private boolean offHeap = false;
+    
+    /** trials start from the seeds failed at tick 0 */
+    public BitParallelRunner(CascadeGraph graph, Propagation propagation, int[] seeds) {
+        this(graph, propagation, CascadeCheckpoint.forSeeds(graph, seeds));
+    }
+    
+    public BitParallelRunner(CascadeGraph graph, Propagation propagation, CascadeCheckpoint start) {
+        if (!start.fits(graph))
+            throw new IllegalArgumentException("checkpoint is for a different graph");
+        
+        this.graph = graph;
+        this.propagation = propagation;
+        this.start = start;
+    }
+    
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    public int getFirstTick() {
+        return start.getTick();
+    }
+    
+    public String[] getMetricNames() {
+        return CascadeMetrics.names(graph);
+    }
+    
+    public void setMaxTicks(int maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+    
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Streams per tick metrics to a sink, waiting for it rather than losing records; an interrupt
+     * while waiting cancels the run with a {@link CancellationException}.
+     */
+    public void setResults(ResultSink results) {
+        this.results = results;
+    }
+    
+    /** keep each worker's lane words in native memory */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+    
+    public TrialStatistics run(int trials) {
+        return run(0, trials, ForkJoinPool.commonPool());
+    }
+    
+    public TrialStatistics run(int first, int trials, ForkJoinPool pool) {
+        int batches = (trials + BitParallelEngine.LANES - 1) / BitParallelEngine.LANES;
+        int grain = Math.max(1, batches / (pool.getParallelism() * 4));
+        
+        return pool.invoke(new BatchTask(first, first + trials, 0, batches, grain));
+    }
+    
+    /**
+     * Runs trials <code>first .. first + lanes - 1</code> together, recording each one's metrics
+     * for the starting tick and every tick it was still running for.
+     */
+    private void runBatch(int first, int lanes, BitParallelEngine engine, Series[] series) {
+        long all = lanes == 64 ? -1L : (1L << lanes) - 1;
+        
+        engine.restore(start, all);
+        engine.getRandom().setState(RandomStream.trialSeed(seed, first));
+        
+        for (int lane = 0; lane < lanes; ++lane) {
+            series[lane].length = 0;
+            record(first + lane, engine, lane, series[lane]);
+        }
+        
+        while (engine.getTick() < maxTicks) {
+            long running = engine.getRunning();
+            if (running == 0)
+                break;
+            
+            engine.step();
+            
+            for (long r = running; r != 0; r &= r - 1) {
+                int lane = Long.numberOfTrailingZeros(r);
+                record(first + lane, engine, lane, series[lane]);
+            }
+        }
+    }
+    
+    private void record(int trial, BitParallelEngine engine, int lane, Series series) {
+        double[] metrics = engine.getMetrics(lane, series.next());
+        
+        if (results == null)
+            return;
+        
+        try {
+            results.put(trial, engine.getTick(), metrics);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while writing results of trial " + trial);
+        }
+    }
+    
+    private class BatchTask extends RecursiveTask<TrialStatistics> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int first;
+        private final int end;
+        private final int from;
+        private final int to;
+        private final int grain;
+        
+        /** batches <code>from .. to - 1</code> of the trials <code>first .. end - 1</code> */
+        BatchTask(int first, int end, int from, int to, int grain) {
+            this.first = first;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+        
+        @Override
+        protected TrialStatistics compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                BatchTask left = new BatchTask(first, end, from, mid, grain);
+                left.fork();
+                
+                TrialStatistics stats = new BatchTask(first, end, mid, to, grain).compute();
+                stats.merge(left.join());
+                
+                return stats;
+            }
+            
+            BitParallelEngine engine = new BitParallelEngine(graph, propagation, offHeap);
+            TrialStatistics stats = new TrialStatistics(getMetricNames());
+            Series[] series = new Series[BitParallelEngine.LANES];
+            for (int lane = 0; lane < series.length; ++lane)
+                series[lane] = new Series(CascadeMetrics.size(graph));
+            
+            for (int b = from; b < to; ++b) {
+                int trial = first + b * BitParallelEngine.LANES;
+                int lanes = Math.min(BitParallelEngine.LANES, end - trial);
+                
+                runBatch(trial, lanes, engine, series);
+                for (int lane = 0; lane < lanes; ++lane)
+                    stats.add(series[lane].rows, series[lane].length);
+            }
+            
+            return stats;
+        }
+    }
+    
+    /**
+     * metric rows of one lane's current trial, reused from batch to batch
+     */
+    private static class Series {
+        
+        private final int width;
+        private double[][] rows = new double[64][];
+        private int length = 0;
+        
+        Series(int width) {
+            this.width = width;
+        }
+        
+        double[] next() {
+            if (length == rows.length)
+                rows = Arrays.copyOf(rows, length * 2);
+            if (rows[length] == null)
+                rows[length] = new double[width];
+            
+            return rows[length++];
+        }
+    }
+}
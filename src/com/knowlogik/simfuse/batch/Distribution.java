@@ -0,0 +1,211 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.Arrays;
+
+/**
+ * Running summary of one metric across trials: count, mean and variance (Welford, merged with
+ * Chan's formula) plus quantiles.
+ * 
+ * Quantiles come from the raw samples while there are at most {@link #EXACT} of them, and from a
+ * fixed histogram of {@link #BINS} bins over [0, {@link #RANGE}] after that, so a distribution never
+ * takes more than a few KB whatever the trial count, and merging two is adding their bins. The
+ * metrics are percentages, which the bins resolve to a tenth of a percentage point; quantiles
+ * interpolate within a bin and never leave [min, max], which stay exact. Values outside the range
+ * count in the first or last bin.
+ */
+public class Distribution {
+    
+    /** upper end of the histogram range, which starts at 0 */
+    public static final double RANGE = 100;
+    
+    public static final int BINS = 1000;
+    
+    /** most samples kept as they are */
+    public static final int EXACT = 512;
+    
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    
+    // raw samples until there are more than EXACT, then null and the histogram instead
+    private double[] samples = new double[16];
+    private boolean sorted = true;
+    private int[] bins = null;
+    
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        
+        if (bins != null) {
+            bins[bin(value)]++;
+            return;
+        }
+        
+        if (count > EXACT) {
+            toHistogram();
+            bins[bin(value)]++;
+            return;
+        }
+        
+        if (count > samples.length)
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        samples[(int) count - 1] = value;
+        sorted = false;
+    }
+    
+    public void merge(Distribution other) {
+        if (other.count == 0)
+            return;
+        
+        long n = count + other.count;
+        double delta = other.mean - mean;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+        mean += delta * other.count / n;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        
+        if (bins == null && other.bins == null && n <= EXACT) {
+            if (n > samples.length)
+                samples = Arrays.copyOf(samples, (int) Math.max(n, samples.length * 2L));
+            System.arraycopy(other.samples, 0, samples, (int) count, (int) other.count);
+            count = n;
+            sorted = false;
+            return;
+        }
+        
+        if (bins == null)
+            toHistogram();
+        
+        if (other.bins != null) {
+            for (int b = 0; b < BINS; ++b)
+                bins[b] += other.bins[b];
+        }
+        else {
+            for (int i = 0; i < other.count; ++i)
+                bins[bin(other.samples[i])]++;
+        }
+        
+        count = n;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+    
+    /** sample variance */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+    
+    public double getMin() {
+        return min;
+    }
+    
+    public double getMax() {
+        return max;
+    }
+    
+    /** true while quantiles are still exact, i.e. computed from every sample */
+    public boolean isExact() {
+        return bins == null;
+    }
+    
+    /**
+     * @param q
+     *            quantile in [0, 1]; linear interpolation between closest ranks, within a bin once
+     *            the samples have been binned
+     */
+    public double getQuantile(double q) {
+        if (count == 0)
+            return Double.NaN;
+        
+        double pos = q * (count - 1);
+        
+        if (bins != null)
+            return binnedQuantile(pos);
+        
+        if (!sorted) {
+            Arrays.sort(samples, 0, (int) count);
+            sorted = true;
+        }
+        
+        int lo = (int) Math.floor(pos);
+        int hi = (int) Math.ceil(pos);
+        
+        return samples[lo] + (samples[hi] - samples[lo]) * (pos - lo);
+    }
+    
+    /**
+     * Counts in <code>n</code> equal bins over [0, {@link #RANGE}], e.g. 10 to see whether final
+     * sizes cluster at both ends.
+     * 
+     * @param n
+     *            number of bins, a divisor of {@link #BINS}
+     */
+    public long[] getHistogram(int n) {
+        if (n <= 0 || BINS % n != 0)
+            throw new IllegalArgumentException(n + " bins do not divide " + BINS);
+        
+        long[] out = new long[n];
+        int width = BINS / n;
+        
+        if (bins != null) {
+            for (int b = 0; b < BINS; ++b)
+                out[b / width] += bins[b];
+        }
+        else {
+            for (int i = 0; i < count; ++i)
+                out[bin(samples[i]) / width]++;
+        }
+        
+        return out;
+    }
+    
+    private void toHistogram() {
+        bins = new int[BINS];
+        
+        // when adding, count already includes the sample not stored yet
+        for (int i = 0, end = (int) Math.min(count, EXACT); i < end; ++i)
+            bins[bin(samples[i])]++;
+        
+        samples = null;
+    }
+    
+    /**
+     * Rank <code>pos</code> (0 based, fractional) read off the histogram, taking each bin's samples
+     * as spread evenly over it.
+     */
+    private double binnedQuantile(double pos) {
+        double width = RANGE / BINS;
+        long below = 0;
+        
+        for (int b = 0; b < BINS; ++b) {
+            int c = bins[b];
+            
+            if (below + c > pos) {
+                double value = (b + (pos - below + 0.5) / c) * width;
+                return Math.max(min, Math.min(max, value));
+            }
+            
+            below += c;
+        }
+        
+        return max;
+    }
+    
+    private static int bin(double value) {
+        int b = (int) (value / RANGE * BINS);
+        
+        return b < 0 ? 0 : b >= BINS ? BINS - 1 : b;
+    }
+}
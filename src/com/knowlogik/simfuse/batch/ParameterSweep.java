@@ -0,0 +1,205 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.Propagation;
+
+/**
+ * Monte Carlo runs over a grid of PROB_A / PROB_B / PROB_AB settings.
+ * 
+ * The grid varies the probability within any chosen layers (A and B in the classic settings) and
+ * the probability between layers on top of a base matrix, which sets everything else. Points go in
+ * lexicographic order, the first swept layer outermost and the between-layer value innermost.
+ * 
+ * Every (point, trial) leaf goes onto one fork/join pool up front, so points run side by side and
+ * idle workers steal trials from whichever point still has them. All points share the loaded graph
+ * and the same per-trial random streams, which keeps comparisons between points free of seed noise.
+ * Results are handed to the {@link Listener} in grid order as soon as each point and all points
+ * before it are done.
+ */
+public class ParameterSweep {
+    
+    /**
+     * receives each finished grid point
+     */
+    public interface Listener {
+        
+        void pointDone(Propagation propagation, TrialStatistics stats);
+    }
+    
+    private final CascadeGraph graph;
+    private final CascadeCheckpoint start;
+    private final int[] layers;
+    private final int[][] intra;
+    private final int[] inter;
+    private Propagation base;
+    
+    private int trials = 100;
+    private int maxTicks = 10000;
+    private boolean offHeap = false;
+    private long seed = System.nanoTime();
+    
+    public ParameterSweep(CascadeGraph graph, int[] seeds, int[] probA, int[] probB, int[] probAB) {
+        this(graph, CascadeCheckpoint.forSeeds(graph, seeds), probA, probB, probAB);
+    }
+    
+    /**
+     * Sweeps continuations of a checkpointed cascade, e.g. different PROB_AB values from the same
+     * tick on.
+     */
+    public ParameterSweep(CascadeGraph graph, CascadeCheckpoint start, int[] probA, int[] probB, int[] probAB) {
+        this(graph, start, new int[] { 0, 1 }, new int[][] { probA, probB }, probAB);
+    }
+    
+    /**
+     * @param layers
+     *            layer codes whose own probability is varied, possibly none
+     * @param intra
+     *            values per varied layer, in the same order
+     * @param inter
+     *            values of the probability between layers
+     */
+    public ParameterSweep(CascadeGraph graph, CascadeCheckpoint start, int[] layers, int[][] intra, int[] inter) {
+        if (intra.length != layers.length)
+            throw new IllegalArgumentException(layers.length + " layers but " + intra.length + " value lists");
+        
+        for (int l : layers) {
+            if (l < 0 || l >= graph.getNodeLayerCount())
+                throw new IllegalArgumentException("no layer " + l + ", the graph has " + graph.getNodeLayerCount());
+        }
+        
+        this.graph = graph;
+        this.start = start;
+        this.layers = layers.clone();
+        this.intra = new int[intra.length][];
+        for (int i = 0; i < intra.length; ++i)
+            this.intra[i] = intra[i].clone();
+        this.inter = inter.clone();
+        
+        int[] defaults = new int[graph.getNodeLayerCount()];
+        Arrays.fill(defaults, 30);
+        this.base = new Propagation(defaults, 80);
+    }
+    
+    public Propagation getBase() {
+        return base;
+    }
+    
+    /**
+     * Settings the grid points start from, by default 30 within and 80 between layers as in the
+     * GUI; entries the grid varies are overwritten.
+     */
+    public void setBase(Propagation base) {
+        this.base = base;
+    }
+    
+    public int getTrials() {
+        return trials;
+    }
+    
+    /** trials per grid point */
+    public void setTrials(int trials) {
+        this.trials = trials;
+    }
+    
+    public void setMaxTicks(int maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+    
+    /** see {@link TrialRunner#setOffHeap(boolean)} */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /** number of grid points */
+    public int size() {
+        int size = inter.length;
+        for (int[] values : intra)
+            size *= values.length;
+        
+        return size;
+    }
+    
+    public void run(ForkJoinPool pool, Listener listener) {
+        List<Propagation> points = new ArrayList<>();
+        List<ForkJoinTask<TrialStatistics>> tasks = new ArrayList<>();
+        
+        // odometer over the varied layers' values, the last layer turning fastest
+        int[] at = new int[layers.length];
+        
+        for (int point = 0, size = size(); point < size; point += inter.length) {
+            Propagation intraPoint = base;
+            for (int i = 0; i < layers.length; ++i)
+                intraPoint = intraPoint.withIntra(layers[i], intra[i][at[i]]);
+            
+            for (int ab : inter) {
+                Propagation propagation = intraPoint.withInter(ab);
+                
+                TrialRunner runner = new TrialRunner(graph, propagation, start);
+                runner.setMaxTicks(maxTicks);
+                runner.setSeed(seed);
+                runner.setOffHeap(offHeap);
+                
+                points.add(propagation);
+                tasks.add(pool.submit(runner.task(0, trials, pool.getParallelism())));
+            }
+            
+            for (int i = layers.length - 1; i >= 0 && ++at[i] == intra[i].length; --i)
+                at[i] = 0;
+        }
+        
+        for (int i = 0; i < points.size(); ++i) {
+            listener.pointDone(points.get(i), tasks.get(i).join());
+            
+            // let the finished point's statistics go
+            tasks.set(i, null);
+        }
+    }
+    
+    /**
+     * Parses a comma separated list of values and <code>start:end[:step]</code> ranges (end
+     * inclusive, step defaults to 1), e.g. <code>0:100:10</code> or <code>30,50,70:80:5</code>.
+     */
+    public static int[] parseRange(String spec) {
+        List<Integer> values = new ArrayList<>();
+        
+        for (String item : spec.split(",")) {
+            String[] parts = item.trim().split(":");
+            int start = Integer.parseInt(parts[0].trim());
+            
+            if (parts.length == 1) {
+                values.add(start);
+                continue;
+            }
+            
+            int end = Integer.parseInt(parts[1].trim());
+            int step = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 1;
+            
+            if (step <= 0 || parts.length > 3)
+                throw new NumberFormatException("bad range '" + item + "'");
+            
+            for (int v = start; v <= end; v += step)
+                values.add(v);
+        }
+        
+        int[] out = new int[values.size()];
+        for (int i = 0; i < out.length; ++i)
+            out[i] = values.get(i);
+        
+        return out;
+    }
+}
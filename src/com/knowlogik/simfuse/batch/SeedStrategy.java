@@ -0,0 +1,316 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.Arrays;
+
+import com.knowlogik.simfuse.analysis.Centrality;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.RandomStream;
+
+/**
+ * Picks the initially failed nodes of a cascade: random failure, or a targeted attack on the best
+ * connected nodes.
+ * 
+ * <ul>
+ * <li><code>random</code> - k distinct nodes, uniformly</li>
+ * <li><code>degree</code> - the k highest degree nodes</li>
+ * <li><code>degree:A</code> - the k highest degree nodes of one node layer</li>
+ * <li><code>adaptive</code> - repeatedly the node with the highest degree among the nodes not yet
+ * picked, i.e. degrees are recounted after every removal</li>
+ * <li><code>betweenness</code>, <code>closeness</code>, <code>core</code> - the k best ranked nodes
+ * by a {@link Centrality} measure, over the combined graph or, with a <code>:A</code> suffix, one
+ * layer</li>
+ * </ul>
+ * 
+ * Ties go to the lower node index, except in the adaptive attack, where they are broken arbitrarily
+ * but deterministically. Only the random strategy draws from the stream.
+ */
+public abstract class SeedStrategy {
+    
+    /**
+     * @return at most <code>count</code> distinct nodes, in the order they were picked
+     */
+    public abstract int[] select(CascadeGraph graph, int count, RandomStream random);
+    
+    public static SeedStrategy random() {
+        return new RandomNodes();
+    }
+    
+    public static SeedStrategy highestDegree() {
+        return new HighestDegree(-1);
+    }
+    
+    /** only nodes with the given layer code */
+    public static SeedStrategy highestDegree(int layer) {
+        return new HighestDegree(layer);
+    }
+    
+    public static SeedStrategy adaptive() {
+        return new AdaptiveDegree();
+    }
+    
+    /** highest scores first, e.g. a centrality measure per node */
+    public static SeedStrategy byScore(double[] score) {
+        return new HighestScore(score);
+    }
+    
+    /**
+     * @param name
+     *            random, degree, degree:layer name, adaptive, or betweenness, closeness or core with an
+     *            optional :layer name; centrality measures are computed here, on the common pool
+     */
+    public static SeedStrategy forName(String name, CascadeGraph graph) {
+        if (name.equals("random"))
+            return random();
+        if (name.equals("degree"))
+            return highestDegree();
+        if (name.equals("adaptive"))
+            return adaptive();
+        
+        if (name.startsWith("degree:")) {
+            String layer = name.substring(7);
+            
+            for (int l = 0; l < graph.getNodeLayerCount(); ++l) {
+                if (graph.getNodeLayerName(l).equals(layer))
+                    return highestDegree(l);
+            }
+            
+            throw new IllegalArgumentException("Unknown node layer '" + layer + "'");
+        }
+        
+        String measure = name.indexOf(':') < 0 ? name : name.substring(0, name.indexOf(':'));
+        String network = name.indexOf(':') < 0 ? "all" : name.substring(name.indexOf(':') + 1);
+        
+        if (measure.equals("betweenness"))
+            return byScore(Centrality.forNetwork(graph, network).compute().getBetweenness());
+        if (measure.equals("closeness"))
+            return byScore(Centrality.forNetwork(graph, network).compute().getCloseness());
+        
+        if (measure.equals("core")) {
+            int[] core = Centrality.forNetwork(graph, network).coreNumbers();
+            double[] score = new double[core.length];
+            for (int v = 0; v < core.length; ++v)
+                score[v] = core[v];
+            
+            return byScore(score);
+        }
+        
+        throw new IllegalArgumentException("Unknown seed strategy '" + name + "' (random, degree, degree:layer, adaptive, betweenness, closeness or core)");
+    }
+    
+    /**
+     * partial Fisher-Yates shuffle
+     */
+    private static class RandomNodes extends SeedStrategy {
+        
+        @Override
+        public int[] select(CascadeGraph graph, int count, RandomStream random) {
+            int n = graph.getNodeCount();
+            count = Math.min(count, n);
+            
+            int[] nodes = new int[n];
+            for (int i = 0; i < n; ++i)
+                nodes[i] = i;
+            
+            for (int i = 0; i < count; ++i) {
+                int j = i + random.nextInt(n - i);
+                int t = nodes[i];
+                nodes[i] = nodes[j];
+                nodes[j] = t;
+            }
+            
+            return Arrays.copyOf(nodes, count);
+        }
+    }
+    
+    /**
+     * Counting sort on degree; only the top <code>count</code> nodes are ever ordered.
+     */
+    private static class HighestDegree extends SeedStrategy {
+        
+        private final int layer;
+        
+        HighestDegree(int layer) {
+            this.layer = layer;
+        }
+        
+        @Override
+        public int[] select(CascadeGraph graph, int count, RandomStream random) {
+            int n = graph.getNodeCount();
+            int maxDegree = 0;
+            
+            for (int v = 0; v < n; ++v)
+                maxDegree = Math.max(maxDegree, graph.getDegree(v));
+            
+            int[] bucket = new int[maxDegree + 2];
+            for (int v = 0; v < n; ++v) {
+                if (layer < 0 || graph.getNodeLayer(v) == layer)
+                    bucket[graph.getDegree(v)]++;
+            }
+            
+            // bucket[d] becomes the first output slot for degree d, highest degrees first
+            int total = 0;
+            for (int d = maxDegree; d >= 0; --d) {
+                int size = bucket[d];
+                bucket[d] = total;
+                total += size;
+            }
+            
+            int[] seeds = new int[Math.min(count, total)];
+            for (int v = 0; v < n; ++v) {
+                if (layer >= 0 && graph.getNodeLayer(v) != layer)
+                    continue;
+                
+                int slot = bucket[graph.getDegree(v)]++;
+                if (slot < seeds.length)
+                    seeds[slot] = v;
+            }
+            
+            return seeds;
+        }
+    }
+    
+    /**
+     * Keeps the best <code>count</code> nodes seen so far in a heap with the worst of them on top.
+     */
+    private static class HighestScore extends SeedStrategy {
+        
+        private final double[] score;
+        
+        HighestScore(double[] score) {
+            this.score = score;
+        }
+        
+        @Override
+        public int[] select(CascadeGraph graph, int count, RandomStream random) {
+            int n = Math.min(score.length, graph.getNodeCount());
+            int[] heap = new int[Math.min(count, n)];
+            int size = 0;
+            
+            for (int v = 0; v < n; ++v) {
+                if (size < heap.length) {
+                    // sift up
+                    int i = size++;
+                    while (i > 0 && better(heap[(i - 1) >>> 1], v)) {
+                        heap[i] = heap[(i - 1) >>> 1];
+                        i = (i - 1) >>> 1;
+                    }
+                    heap[i] = v;
+                }
+                else if (size > 0 && better(v, heap[0])) {
+                    siftDown(heap, size, v);
+                }
+            }
+            
+            // popping the worst each time fills the result from the back
+            int[] seeds = new int[size];
+            for (int i = size - 1; i >= 0; --i) {
+                seeds[i] = heap[0];
+                siftDown(heap, i, heap[i]);
+            }
+            
+            return seeds;
+        }
+        
+        /** puts v at the root of heap[0..size) and restores the heap */
+        private void siftDown(int[] heap, int size, int v) {
+            int i = 0;
+            
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size)
+                    break;
+                if (c + 1 < size && better(heap[c], heap[c + 1]))
+                    c++;
+                if (!better(v, heap[c]))
+                    break;
+                
+                heap[i] = heap[c];
+                i = c;
+            }
+            
+            heap[i] = v;
+        }
+        
+        private boolean better(int a, int b) {
+            return score[a] > score[b] || (score[a] == score[b] && a < b);
+        }
+    }
+    
+    /**
+     * Bucket queue over remaining degree (as in Batagelj and Zaversnik's core decomposition, but
+     * taking from the top). <code>order</code> holds the nodes not yet picked sorted by remaining
+     * degree, <code>start[d]</code> is where degree d begins in it. Picking the last node and
+     * moving each of its neighbors one bucket down by a swap keeps the order sorted, so every pick
+     * costs the picked node's degree.
+     */
+    private static class AdaptiveDegree extends SeedStrategy {
+        
+        @Override
+        public int[] select(CascadeGraph graph, int count, RandomStream random) {
+            int n = graph.getNodeCount();
+            int maxDegree = 0;
+            
+            int[] degree = new int[n];
+            for (int v = 0; v < n; ++v) {
+                degree[v] = graph.getDegree(v);
+                maxDegree = Math.max(maxDegree, degree[v]);
+            }
+            
+            int[] start = new int[maxDegree + 1];
+            for (int v = 0; v < n; ++v)
+                start[degree[v]]++;
+            
+            for (int d = 0, total = 0; d <= maxDegree; ++d) {
+                int size = start[d];
+                start[d] = total;
+                total += size;
+            }
+            
+            // fill from the back of each bucket so lower indices end up last, i.e. picked first
+            int[] order = new int[n];
+            int[] position = new int[n];
+            int[] fill = new int[maxDegree + 1];
+            for (int d = 0; d < maxDegree; ++d)
+                fill[d] = start[d + 1];
+            fill[maxDegree] = n;
+            
+            for (int v = 0; v < n; ++v) {
+                int p = --fill[degree[v]];
+                order[p] = v;
+                position[v] = p;
+            }
+            
+            boolean[] picked = new boolean[n];
+            int[] seeds = new int[Math.min(count, n)];
+            
+            for (int i = 0, size = n; i < seeds.length; ++i) {
+                int v = order[--size];
+                seeds[i] = v;
+                picked[v] = true;
+                
+                for (int k = graph.getAdjacencyStart(v), end = graph.getAdjacencyEnd(v); k < end; ++k) {
+                    int u = graph.getTarget(k);
+                    
+                    if (picked[u])
+                        continue;
+                    
+                    // swap u to the front of its bucket, then shift the bucket boundary past it
+                    int d = degree[u];
+                    int p = position[u];
+                    int first = start[d];
+                    int w = order[first];
+                    
+                    order[p] = w;
+                    position[w] = p;
+                    order[first] = u;
+                    position[u] = first;
+                    
+                    start[d]++;
+                    degree[u]--;
+                }
+            }
+            
+            return seeds;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.Propagation;
+
+/**
+ * Finds the probability at which a cascade turns global, i.e. where the mean final value of one
+ * metric (by default the total failed node percentage) crosses a level, while the other two
+ * probabilities stay fixed.
+ * 
+ * The search starts from a bracket whose ends lie on either side of the level and narrows it by
+ * probing a few evenly spaced interior points per round (plain bisection with one probe), all on
+ * the same pool. A probe runs trials in growing batches only until a normal confidence interval on
+ * its mean lies wholly above or below the level, or the trial cap is hit; probes far from the
+ * threshold settle after the first batch. Trial <code>i</code> draws the same stream at every probe,
+ * so neighbouring probes are compared without seed noise.
+ * 
+ * Assumes the metric grows with the probability being varied.
+ */
+public class ThresholdFinder {
+    
+    /** layer codes of the classic A/B settings; any layer code can be varied */
+    public static final int PROB_A = 0;
+    public static final int PROB_B = 1;
+    
+    /** the probability between layers, every pair at once */
+    public static final int PROB_AB = -1;
+    
+    private final CascadeGraph graph;
+    private final CascadeCheckpoint start;
+    private final Propagation base;
+    private final int vary;
+    
+    private int metric = 0;
+    private double level = 50;
+    private int low = 0;
+    private int high = 100;
+    private int probes = 3;
+    private int firstBatch = 32;
+    private int maxTrials = 2000;
+    private double z = 1.96;
+    private int maxTicks = 10000;
+    private boolean offHeap = false;
+    private long seed = System.nanoTime();
+    
+    /**
+     * @param base
+     *            fixed probabilities; the one selected by <code>vary</code> is ignored
+     * @param vary
+     *            code of the layer whose own probability is varied, e.g. {@link #PROB_A}, or
+     *            {@link #PROB_AB}
+     */
+    public ThresholdFinder(CascadeGraph graph, int[] seeds, Propagation base, int vary) {
+        this(graph, CascadeCheckpoint.forSeeds(graph, seeds), base, vary);
+    }
+    
+    /**
+     * Searches continuations of a checkpointed cascade.
+     */
+    public ThresholdFinder(CascadeGraph graph, CascadeCheckpoint start, Propagation base, int vary) {
+        int layers = graph.getNodeLayerCount();
+        
+        if (vary == PROB_AB ? layers < 2 : vary < 0 || vary >= layers)
+            throw new IllegalArgumentException(vary == PROB_AB ? "a single layer graph has no probability between layers" : "no layer " + vary + ", the graph has " + layers);
+        
+        this.graph = graph;
+        this.start = start;
+        this.base = base;
+        this.vary = vary;
+    }
+    
+    /** index into {@link com.knowlogik.simfuse.engine.CascadeMetrics#names(CascadeGraph)} */
+    public void setMetric(int metric) {
+        this.metric = metric;
+    }
+    
+    /** metric value (percent) that marks a global cascade */
+    public void setLevel(double level) {
+        this.level = level;
+    }
+    
+    /** initial bracket, inclusive */
+    public void setBracket(int low, int high) {
+        this.low = low;
+        this.high = high;
+    }
+    
+    /** interior probes per round */
+    public void setProbes(int probes) {
+        this.probes = Math.max(1, probes);
+    }
+    
+    /** trials in a probe's first batch; later batches double */
+    public void setFirstBatch(int firstBatch) {
+        this.firstBatch = Math.max(2, firstBatch);
+    }
+    
+    /** trial cap per probe; a probe still undecided there is judged by its mean alone */
+    public void setMaxTrials(int maxTrials) {
+        this.maxTrials = maxTrials;
+    }
+    
+    /** normal quantile of the stopping interval, 1.96 for 95% */
+    public void setZ(double z) {
+        this.z = z;
+    }
+    
+    public void setMaxTicks(int maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+    
+    /** see {@link TrialRunner#setOffHeap(boolean)} */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    public Result run(ForkJoinPool pool) {
+        Result result = new Result(level);
+        
+        Probe lo = new Probe(low);
+        Probe hi = new Probe(high);
+        settle(pool, new Probe[] { lo, hi }, result);
+        
+        if (lo.above || !hi.above) {
+            result.low = lo;
+            result.high = hi;
+            return result;
+        }
+        
+        while (hi.prob - lo.prob > 1) {
+            List<Probe> round = new ArrayList<>();
+            
+            for (int k = 1; k <= probes; ++k) {
+                int p = lo.prob + (int) ((long) (hi.prob - lo.prob) * k / (probes + 1));
+                
+                if (p > lo.prob && p < hi.prob && (round.isEmpty() || round.get(round.size() - 1).prob != p))
+                    round.add(new Probe(p));
+            }
+            
+            settle(pool, round.toArray(new Probe[round.size()]), result);
+            
+            // keep the first crossing; probes are in ascending order
+            Probe last = lo;
+            for (Probe probe : round) {
+                if (probe.above) {
+                    hi = probe;
+                    break;
+                }
+                last = probe;
+            }
+            lo = last;
+        }
+        
+        result.found = true;
+        result.low = lo;
+        result.high = hi;
+        
+        return result;
+    }
+    
+    /**
+     * Runs batches for all given probes side by side until each one is decided.
+     */
+    private void settle(ForkJoinPool pool, Probe[] round, Result result) {
+        List<Probe> open = new ArrayList<>();
+        for (Probe probe : round)
+            open.add(probe);
+        
+        int batch = firstBatch;
+        
+        while (!open.isEmpty()) {
+            List<ForkJoinTask<TrialStatistics>> tasks = new ArrayList<>();
+            
+            for (Probe probe : open) {
+                int trials = (int) Math.min(batch, maxTrials - probe.trials);
+                tasks.add(pool.submit(probe.runner.task((int) probe.trials, trials, pool.getParallelism())));
+            }
+            
+            for (int i = open.size() - 1; i >= 0; --i) {
+                Probe probe = open.get(i);
+                TrialStatistics stats = tasks.get(i).join();
+                
+                result.trials += stats.getTrialCount();
+                probe.add(stats.summarizeFinal()[metric]);
+                
+                if (probe.decide())
+                    open.remove(i);
+            }
+            
+            batch *= 2;
+        }
+        
+        for (Probe probe : round)
+            result.probes.add(probe);
+    }
+    
+    /** the base settings with the varied probability replaced; ab stands for every pair of layers */
+    private Propagation propagation(int prob) {
+        return vary == PROB_AB ? base.withInter(prob) : base.withIntra(vary, prob);
+    }
+    
+    /**
+     * One probability under test and the final metric values seen there so far.
+     */
+    public class Probe {
+        
+        private final int prob;
+        private final TrialRunner runner;
+        private final Distribution values = new Distribution();
+        private long trials = 0;
+        private boolean above;
+        
+        Probe(int prob) {
+            this.prob = prob;
+            this.runner = new TrialRunner(graph, propagation(prob), start);
+            runner.setMaxTicks(maxTicks);
+            runner.setSeed(seed);
+            runner.setOffHeap(offHeap);
+        }
+        
+        void add(Distribution d) {
+            values.merge(d);
+            trials = values.getCount();
+        }
+        
+        /**
+         * @return true once the interval excludes the level or the trial cap is reached
+         */
+        boolean decide() {
+            above = values.getMean() >= level;
+            
+            return trials >= maxTrials || Math.abs(values.getMean() - level) > getHalfWidth();
+        }
+        
+        public int getProbability() {
+            return prob;
+        }
+        
+        public long getTrialCount() {
+            return trials;
+        }
+        
+        public double getMean() {
+            return values.getMean();
+        }
+        
+        /** half width of the confidence interval on the mean */
+        public double getHalfWidth() {
+            return z * Math.sqrt(values.getVariance() / trials);
+        }
+        
+        /** whether the mean was judged to be at or above the level */
+        public boolean isAbove() {
+            return above;
+        }
+    }
+    
+    public static class Result {
+        
+        private final double level;
+        private boolean found = false;
+        private Probe low;
+        private Probe high;
+        private long trials = 0;
+        private final List<Probe> probes = new ArrayList<>();
+        
+        Result(double level) {
+            this.level = level;
+        }
+        
+        /** false if the initial bracket ends were on the same side of the level */
+        public boolean isFound() {
+            return found;
+        }
+        
+        /** highest probe judged below the level */
+        public Probe getLow() {
+            return low;
+        }
+        
+        /** lowest probe judged at or above the level */
+        public Probe getHigh() {
+            return high;
+        }
+        
+        /**
+         * @return crossing point interpolated linearly between the two final probes
+         */
+        public double getEstimate() {
+            double span = high.getMean() - low.getMean();
+            
+            if (!found || span <= 0)
+                return (low.prob + high.prob) / 2.0;
+            
+            return low.prob + (high.prob - low.prob) * Math.min(1, Math.max(0, (level - low.getMean()) / span));
+        }
+        
+        /** trials run over the whole search */
+        public long getTrialCount() {
+            return trials;
+        }
+        
+        /** every probe in the order it was run */
+        public List<Probe> getProbes() {
+            return probes;
+        }
+    }
+}
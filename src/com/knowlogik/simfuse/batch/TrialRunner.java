@@ -0,0 +1,270 @@
+package com.knowlogik.simfuse.batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+import com.knowlogik.simfuse.engine.CascadeEngine;
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeMetrics;
+import com.knowlogik.simfuse.engine.CascadeModel;
+import com.knowlogik.simfuse.engine.CascadeState;
+import com.knowlogik.simfuse.engine.CascadeTrace;
+import com.knowlogik.simfuse.engine.Propagation;
+import com.knowlogik.simfuse.engine.RandomStream;
+import com.knowlogik.simfuse.io.ResultSink;
+import com.knowlogik.simfuse.io.TraceWriter;
+
+/**
+ * Runs many independent cascades from the same seed set on a fork/join pool.
+ * 
+ * The graph and the engine are shared read-only. Trials are split into ranges; each leaf task keeps
+ * its own state arrays and statistics, and the statistics are merged on the way back up.
+ * 
+ * Trial <code>i</code> always draws from the stream keyed by (seed, i), so results do not depend on
+ * the pool size or on how the work was split.
+ */
+public class TrialRunner {
+    
+    private final CascadeGraph graph;
+    private final CascadeCheckpoint start;
+    private CascadeModel model;
+    private boolean giant = false;
+    private boolean offHeap = false;
+    private int maxTicks = 10000;
+    private long seed = System.nanoTime();
+    private ResultSink results = null;
+    private TraceWriter trace = null;
+    
+    /** trials start from the seeds failed at tick 0 */
+    public TrialRunner(CascadeGraph graph, Propagation propagation, int[] seeds) {
+        this(graph, propagation, CascadeCheckpoint.forSeeds(graph, seeds));
+    }
+    
+    /**
+     * Trials branch off a checkpointed cascade, each going on with its own random stream.
+     */
+    public TrialRunner(CascadeGraph graph, Propagation propagation, CascadeCheckpoint start) {
+        if (!start.fits(graph))
+            throw new IllegalArgumentException("checkpoint is for a different graph");
+        
+        this.graph = graph;
+        this.start = start;
+        this.model = new CascadeEngine(graph, propagation);
+    }
+    
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    /** tick of the first recorded row, 0 unless starting from a checkpoint */
+    public int getFirstTick() {
+        return start.getTick();
+    }
+    
+    /**
+     * Rule the trials follow, shared by all workers; by default a {@link CascadeEngine} with the
+     * runner's propagation.
+     */
+    public void setModel(CascadeModel model) {
+        if (model.getGraph() != graph)
+            throw new IllegalArgumentException("model is for a different graph");
+        
+        this.model = model;
+    }
+    
+    /** also report each layer's giant component size, see {@link CascadeMetrics} */
+    public void setGiantComponents(boolean giant) {
+        this.giant = giant;
+    }
+    
+    /** names of the recorded metrics, in column order */
+    public String[] getMetricNames() {
+        return CascadeMetrics.names(graph, giant);
+    }
+    
+    /** keep each worker's cascade state in native memory, see {@link CascadeState#allocateDirect} */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+    
+    public int getMaxTicks() {
+        return maxTicks;
+    }
+    
+    /** upper bound on ticks per trial, for cascades that would otherwise keep going */
+    public void setMaxTicks(int maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    /** master seed every trial's stream is derived from */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Also streams every trial's per tick metrics to a sink; workers wait for the sink rather than
+     * lose records. A worker interrupted while waiting cancels the run with a
+     * {@link CancellationException}, since the results would be incomplete.
+     */
+    public void setResults(ResultSink results) {
+        this.results = results;
+    }
+    
+    /**
+     * Also writes every trial's failures, with their sources and a tick index, once the trial is
+     * over; see {@link CascadeTrace}. Write errors end the run.
+     */
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+    }
+    
+    /** runs on the common pool */
+    public TrialStatistics run(int trials) {
+        return run(trials, ForkJoinPool.commonPool());
+    }
+    
+    public TrialStatistics run(int trials, ForkJoinPool pool) {
+        return run(0, trials, pool);
+    }
+    
+    /**
+     * Runs trials <code>first .. first + trials - 1</code>; rerunning a single trial id with the same
+     * seed reproduces it exactly.
+     */
+    public TrialStatistics run(int first, int trials, ForkJoinPool pool) {
+        return pool.invoke(task(first, trials, pool.getParallelism()));
+    }
+    
+    /**
+     * Unstarted task for trials <code>first .. first + trials - 1</code>, for callers that keep
+     * several runs in flight on one pool.
+     * 
+     * @param parallelism
+     *            expected number of workers, used to size the leaves
+     */
+    public ForkJoinTask<TrialStatistics> task(int first, int trials, int parallelism) {
+        int grain = Math.max(1, trials / (parallelism * 8));
+        
+        return new TrialTask(first, first + trials, grain);
+    }
+    
+    /**
+     * Runs one trial to completion, recording metrics for the starting tick (seeds only, unless
+     * starting from a checkpoint) and every tick after.
+     */
+    private void runTrial(int trial, CascadeModel engine, CascadeState state, Series series) {
+        state.restore(start);
+        state.getRandom().setState(RandomStream.trialSeed(seed, trial));
+        
+        series.length = 0;
+        record(trial, state.getTick(), CascadeMetrics.compute(state, giant, series.next(state)));
+        
+        while (!state.isDone() && state.getTick() < maxTicks) {
+            engine.step(state);
+            record(trial, state.getTick(), CascadeMetrics.compute(state, giant, series.next(state)));
+        }
+        
+        if (trace == null)
+            return;
+        
+        try {
+            trace.write(CascadeTrace.record(trial, state, start.getTick(), series.failed, series.length));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void record(int trial, int tick, double[] metrics) {
+        if (results == null)
+            return;
+        
+        try {
+            results.put(trial, tick, metrics);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while writing results of trial " + trial);
+        }
+    }
+    
+    private class TrialTask extends RecursiveTask<TrialStatistics> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+        private final int grain;
+        
+        TrialTask(int from, int to, int grain) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+        
+        @Override
+        protected TrialStatistics compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                TrialTask left = new TrialTask(from, mid, grain);
+                left.fork();
+                
+                TrialStatistics stats = new TrialTask(mid, to, grain).compute();
+                stats.merge(left.join());
+                
+                return stats;
+            }
+            
+            CascadeModel engine = model;
+            CascadeState state = engine.newState(offHeap);
+            state.setRecordingSources(trace != null);
+            TrialStatistics stats = new TrialStatistics(getMetricNames());
+            Series series = new Series(CascadeMetrics.size(graph, giant));
+            
+            for (int trial = from; trial < to; ++trial) {
+                runTrial(trial, engine, state, series);
+                stats.add(series.rows, series.length);
+            }
+            
+            return stats;
+        }
+    }
+    
+    /**
+     * metric rows of the current trial and the failed count at each, reused from trial to trial
+     */
+    private static class Series {
+        
+        private final int width;
+        private double[][] rows = new double[64][];
+        private int[] failed = new int[64];
+        private int length = 0;
+        
+        Series(int width) {
+            this.width = width;
+        }
+        
+        double[] next(CascadeState state) {
+            if (length == rows.length) {
+                rows = Arrays.copyOf(rows, length * 2);
+                failed = Arrays.copyOf(failed, length * 2);
+            }
+            if (rows[length] == null)
+                rows[length] = new double[width];
+            
+            failed[length] = state.getFailedCount();
+            
+            return rows[length++];
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.knowlogik.simfuse.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-tick distributions of every cascade metric across many trials.
+ * 
+ * Trials stop at different ticks. A trial that has stopped keeps its final values for all later
+ * ticks, so each tick always summarizes every trial. To make that mergeable without storing whole
+ * series, the values of trials still running at a tick and the final values of trials that stopped
+ * at a tick are kept apart and only combined by {@link #summarize()}.
+ */
+public class TrialStatistics {
+    
+    private final String[] names;
+    
+    private final List<Distribution[]> running = new ArrayList<>();
+    private final List<Distribution[]> ended = new ArrayList<>();
+    private long trials = 0;
+    
+    public TrialStatistics(String[] names) {
+        this.names = names.clone();
+    }
+    
+    public String[] getNames() {
+        return names.clone();
+    }
+    
+    public int getMetricCount() {
+        return names.length;
+    }
+    
+    public long getTrialCount() {
+        return trials;
+    }
+    
+    /** number of ticks reached by the longest trial */
+    public int getTickCount() {
+        return running.size();
+    }
+    
+    /**
+     * Adds one trial.
+     * 
+     * @param series
+     *            metric values per tick, <code>series[tick][metric]</code>
+     * @param length
+     *            number of ticks recorded, at least 1
+     */
+    public void add(double[][] series, int length) {
+        for (int t = 0; t < length; ++t) {
+            Distribution[] d = tick(running, t);
+            for (int m = 0; m < names.length; ++m)
+                d[m].add(series[t][m]);
+        }
+        
+        Distribution[] d = tick(ended, length - 1);
+        for (int m = 0; m < names.length; ++m)
+            d[m].add(series[length - 1][m]);
+        
+        trials++;
+    }
+    
+    public void merge(TrialStatistics other) {
+        for (int t = 0; t < other.running.size(); ++t) {
+            Distribution[] d = tick(running, t);
+            for (int m = 0; m < names.length; ++m)
+                d[m].merge(other.running.get(t)[m]);
+        }
+        
+        for (int t = 0; t < other.ended.size(); ++t) {
+            Distribution[] d = tick(ended, t);
+            for (int m = 0; m < names.length; ++m)
+                d[m].merge(other.ended.get(t)[m]);
+        }
+        
+        trials += other.trials;
+    }
+    
+    /**
+     * @return distribution of every metric per tick, <code>[tick][metric]</code>, where trials that
+     *         stopped earlier count with their final values
+     */
+    public Distribution[][] summarize() {
+        Distribution[][] out = new Distribution[running.size()][];
+        Distribution[] stopped = blank();
+        
+        for (int t = 0; t < running.size(); ++t) {
+            out[t] = blank();
+            for (int m = 0; m < names.length; ++m) {
+                out[t][m].merge(running.get(t)[m]);
+                out[t][m].merge(stopped[m]);
+            }
+            
+            if (t < ended.size())
+                for (int m = 0; m < names.length; ++m)
+                    stopped[m].merge(ended.get(t)[m]);
+        }
+        
+        return out;
+    }
+    
+    /**
+     * @return distribution of every metric once all trials have stopped
+     */
+    public Distribution[] summarizeFinal() {
+        Distribution[] out = blank();
+        
+        for (Distribution[] d : ended)
+            for (int m = 0; m < names.length; ++m)
+                out[m].merge(d[m]);
+        
+        return out;
+    }
+    
+    private Distribution[] tick(List<Distribution[]> ticks, int t) {
+        while (ticks.size() <= t)
+            ticks.add(blank());
+        
+        return ticks.get(t);
+    }
+    
+    private Distribution[] blank() {
+        Distribution[] d = new Distribution[names.length];
+        for (int m = 0; m < names.length; ++m)
+            d[m] = new Distribution();
+        
+        return d;
+    }
+}
@@ -0,0 +1,382 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The {@link CascadeEngine} model run for up to 64 trials at once, bit sliced: every per node flag
+ * is a <code>long</code> whose bit i is that flag in trial (lane) i.
+ * 
+ * A tick walks the nodes that failed in any lane since the previous one and, for each neighbor,
+ * tries the lanes where the node is in the frontier and the neighbor is still unchecked, all 64
+ * with one mask. Draws are made 64 at a time, a word per probability (whole percent): each lane's
+ * uniform is compared against the probability bit by bit, most significant first, dropping out as
+ * soon as its bit differs, so a word settles after about seven random longs. Tries take their
+ * lanes' bits from the probability's current word and only draw a new one for lanes already used,
+ * so a word serves many sparse tries. The values of unused bits never influence which bits get
+ * used, so every draw stays independent. Failure counts are bit sliced too, as one vertical binary
+ * counter per layer, so counting a failure in every lane at once costs a few word operations.
+ * 
+ * Per lane the rules are the scalar engine's: one chance per neighbor, the probability of the layer
+ * pair or, for a weighted propagation, of the edge, nodes failing during a tick spread from the
+ * next, and a tick's sources get their chance at a shared neighbor in node order, which is one
+ * order for all lanes. Each (neighbor, lane) try gets its own independent draw, so every lane
+ * samples the scalar engine's process; lanes draw from one shared stream, so results match it in
+ * distribution, not trial for trial.
+ */
+public class BitParallelEngine {
+    
+    public static final int LANES = 64;
+    
+    private static final long ALWAYS = 1L << 32;
+    
+    // 32 bit fixed point threshold per number of hits out of 100
+    private static final long[] THRESHOLD = new long[101];
+    
+    static {
+        for (int hits = 0; hits <= 100; ++hits)
+            THRESHOLD[hits] = hits == 100 ? ALWAYS : ((long) hits << 32) / 100;
+    }
+    
+    private final CascadeGraph graph;
+    private final int layers;
+    
+    // hits per layer pair, or per adjacency slot if the propagation is weighted
+    private int[] pairHits;
+    private int[] slotHits;
+    
+    // current word of draws per number of hits, and the lanes of it already used
+    private final long[] draws = new long[THRESHOLD.length];
+    private final long[] used = new long[THRESHOLD.length];
+    
+    // lane words per node, on the heap or in native memory
+    private final LongBuffer failed;
+    private final LongBuffer checked;
+    private final LongBuffer pending;
+    
+    // nodes with pending lanes, the list being expanded and its frontier words
+    private int[] active;
+    private int[] expanding;
+    private final long[] front;
+    private int activeCount = 0;
+    
+    // vertical counters, node layers then edge layers: counter[c][b] holds bit b of every lane's count
+    private final long[][] counter;
+    
+    private long lanes = 0;
+    private int tick = 0;
+    
+    private final RandomStream random = new RandomStream(0);
+    
+    public BitParallelEngine(CascadeGraph graph, Propagation propagation) {
+        this(graph, propagation, false);
+    }
+    
+    /**
+     * @param direct
+     *            keep the per node words in direct buffers, out of the heap
+     */
+    public BitParallelEngine(CascadeGraph graph, Propagation propagation, boolean direct) {
+        this.graph = graph;
+        this.layers = graph.getNodeLayerCount();
+        setPropagation(propagation);
+        
+        int n = graph.nodeCount;
+        failed = Bits.longs(n, direct);
+        checked = Bits.longs(n, direct);
+        pending = Bits.longs(n, direct);
+        active = new int[n];
+        expanding = new int[n];
+        front = new long[n];
+        
+        int bits = 33 - Integer.numberOfLeadingZeros(Math.max(n, graph.edgeCount));
+        counter = new long[layers + graph.getEdgeLayerCount()][bits];
+    }
+    
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    /**
+     * Takes effect from the next tick. The percentages become 32 bit fixed point thresholds, off by
+     * less than 2^-32 from the scalar engine's <code>nextInt(100) &lt;= p</code>.
+     */
+    public void setPropagation(Propagation propagation) {
+        if (propagation.getLayerCount() < layers)
+            throw new IllegalArgumentException("propagation covers " + propagation.getLayerCount() + " layers, the graph has " + layers);
+        
+        int[] hits = new int[layers * layers];
+        for (int s = 0; s < layers; ++s) {
+            for (int u = 0; u < layers; ++u)
+                hits[s * layers + u] = propagation.hits(s, u, 1);
+        }
+        
+        slotHits = propagation.isWeighted() ? propagation.thresholds(graph) : null;
+        pairHits = hits;
+    }
+    
+    /** shared by all lanes */
+    public RandomStream getRandom() {
+        return random;
+    }
+    
+    /**
+     * Starts the lanes in <code>lanes</code> from a checkpoint (all from the same one), the others
+     * unused. Clearing costs the graph size, i.e. a 64th of it per trial.
+     */
+    public void restore(CascadeCheckpoint start, long lanes) {
+        if (!start.fits(graph))
+            throw new IllegalArgumentException("checkpoint is for a different graph");
+        
+        Bits.clear(failed);
+        Bits.clear(checked);
+        Bits.clear(pending);
+        for (long[] c : counter)
+            Arrays.fill(c, 0);
+        Arrays.fill(used, -1L);
+        
+        this.lanes = lanes;
+        this.activeCount = 0;
+        this.tick = start.getTick();
+        
+        int[] nodes = start.failed();
+        int expanded = start.getExpandedCount();
+        
+        for (int i = 0; i < nodes.length; ++i) {
+            int node = nodes[i];
+            
+            if (failed.get(node) != 0)
+                throw new IllegalArgumentException("a node fails twice in the restored state");
+            
+            fail(node, lanes);
+            
+            if (i >= expanded) {
+                pending.put(node, lanes);
+                active[activeCount++] = node;
+            }
+        }
+        
+        for (int i = 0; i < expanded; ++i) {
+            for (int k = graph.offsets.get(nodes[i]), end = graph.offsets.get(nodes[i] + 1); k < end; ++k) {
+                int n = graph.targets.get(k);
+                checked.put(n, checked.get(n) | lanes);
+            }
+        }
+    }
+    
+    /** lanes in use */
+    public long getLanes() {
+        return lanes;
+    }
+    
+    public int getTick() {
+        return tick;
+    }
+    
+    /** lanes with a frontier left to spread, i.e. the ones the next tick advances */
+    public long getRunning() {
+        long running = 0;
+        for (int i = 0; i < activeCount; ++i)
+            running |= pending.get(active[i]);
+        
+        return running;
+    }
+    
+    /** true once no lane has anything left to spread */
+    public boolean isDone() {
+        return activeCount == 0;
+    }
+    
+    /**
+     * Advances every running lane by one tick.
+     * 
+     * @return the lanes that were running
+     */
+    public long step() {
+        int count = activeCount;
+        int[] list = active;
+        active = expanding;
+        expanding = list;
+        activeCount = 0;
+        
+        int[] slots = slotHits;
+        long running = 0;
+        
+        // node order, the scalar engine's, is the same in every lane
+        Arrays.sort(list, 0, count);
+        for (int i = 0; i < count; ++i) {
+            int node = list[i];
+            front[i] = pending.get(node);
+            pending.put(node, 0);
+            running |= front[i];
+        }
+        
+        for (int i = 0; i < count; ++i) {
+            int node = list[i];
+            long frontier = front[i];
+            int row = graph.nodeLayer.get(node) * layers;
+            
+            for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+                int n = graph.targets.get(k);
+                long check = checked.get(n);
+                long tries = frontier & ~check;
+                
+                if (tries == 0)
+                    continue;
+                
+                checked.put(n, check | tries);
+                
+                // lanes hit earlier in this tick are checked already, so are not tried again
+                long hit = draw(slots != null ? slots[k] : pairHits[row + graph.nodeLayer.get(n)], tries) & ~failed.get(n);
+                if (hit != 0) {
+                    long was = pending.get(n);
+                    if (was == 0)
+                        active[activeCount++] = n;
+                    
+                    pending.put(n, was | hit);
+                }
+            }
+        }
+        
+        // one pass over a node's edges per tick, however many sources hit it
+        for (int i = 0; i < activeCount; ++i)
+            fail(active[i], pending.get(active[i]));
+        
+        tick++;
+        
+        return running;
+    }
+    
+    /**
+     * Fills <code>out</code> with one lane's failure percentages, laid out as by
+     * {@link CascadeMetrics#compute(CascadeState, double[])}.
+     * 
+     * @return out
+     */
+    public double[] getMetrics(int lane, double[] out) {
+        int edgeLayers = graph.getEdgeLayerCount();
+        int c = 0;
+        
+        int total = 0;
+        for (int l = 0; l < layers; ++l)
+            total += count(l, lane);
+        
+        out[c++] = percent(total, graph.nodeCount);
+        for (int l = 0; l < layers; ++l)
+            out[c++] = percent(count(l, lane), graph.nodeLayerCount[l]);
+        
+        int edgeTotal = 0;
+        for (int l = 0; l < edgeLayers; ++l)
+            edgeTotal += count(layers + l, lane);
+        
+        out[c++] = percent(edgeTotal, graph.edgeCount);
+        for (int l = 0; l < edgeLayers; ++l)
+            out[c++] = percent(count(layers + l, lane), graph.edgeLayerCount[l]);
+        
+        return out;
+    }
+    
+    public boolean isFailed(int node, int lane) {
+        return (failed.get(node) >>> lane & 1) != 0;
+    }
+    
+    /**
+     * Marks a node failed in the given lanes, where it was still up, and counts its edges. An edge
+     * fails with whichever end fails first, so it is counted in the lanes where the other end is
+     * still up, and no per edge words are needed.
+     */
+    private void fail(int node, long hit) {
+        failed.put(node, failed.get(node) | hit);
+        add(graph.nodeLayer.get(node), hit);
+        
+        boolean self = false;
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int n = graph.targets.get(k);
+            long fresh;
+            
+            // a self loop sits in the row twice; count it at the first
+            if (n == node)
+                fresh = (self = !self) ? hit : 0;
+            else
+                fresh = hit & ~failed.get(n);
+            
+            if (fresh != 0)
+                add(layers + graph.edgeLayer.get(graph.edges.get(k)), fresh);
+        }
+    }
+    
+    /** adds one to counter c in every lane of mask; ripple carry, usually done after a plane or two */
+    private void add(int c, long mask) {
+        long[] planes = counter[c];
+        long carry = mask;
+        
+        for (int b = 0; carry != 0; ++b) {
+            long t = planes[b] & carry;
+            planes[b] ^= carry;
+            carry = t;
+        }
+    }
+    
+    private int count(int c, int lane) {
+        long[] planes = counter[c];
+        int value = 0;
+        
+        for (int b = 0; b < planes.length; ++b)
+            value |= (int) (planes[b] >>> lane & 1) << b;
+        
+        return value;
+    }
+    
+    /**
+     * One Bernoulli draw per lane in <code>mask</code>, each failing with p hits out of 100, from
+     * the current word for p where the lane's bit is still unused.
+     */
+    private long draw(int p, long mask) {
+        long fresh = mask & ~used[p];
+        long hit = draws[p] & fresh;
+        used[p] |= fresh;
+        
+        long rest = mask & ~fresh;
+        if (rest != 0) {
+            draws[p] = word(THRESHOLD[p]);
+            used[p] = rest;
+            hit |= draws[p] & rest;
+        }
+        
+        return hit;
+    }
+    
+    /**
+     * 64 Bernoulli draws: a lane's bit is set when its uniform 32 bit value, generated one bit per
+     * random long, is below threshold t.
+     */
+    private long word(long t) {
+        if (t == 0)
+            return 0;
+        if (t >= ALWAYS)
+            return -1L;
+        
+        long below = 0;
+        long undecided = -1L;
+        
+        // past t's lowest set bit a lane still tied with t can no longer end up below it
+        for (int b = 31, last = Long.numberOfTrailingZeros(t); b >= last && undecided != 0; --b) {
+            long r = random.nextLong();
+            
+            if ((t >>> b & 1) != 0) {
+                below |= undecided & ~r;
+                undecided &= r;
+            }
+            else {
+                undecided &= ~r;
+            }
+        }
+        
+        return below;
+    }
+    
+    private static double percent(double failed, double count) {
+        return (failed / count) * 100;
+    }
+}
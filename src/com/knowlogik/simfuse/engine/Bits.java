@@ -0,0 +1,65 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Helpers for bitmaps packed into <code>long</code> words, and for the buffers state is kept in:
+ * wrapped arrays on the heap, or direct buffers in native memory, which the GC only sees as a
+ * handle.
+ */
+final class Bits {
+    
+    private Bits() {
+    }
+    
+    static LongBuffer create(int size, boolean direct) {
+        return longs((size + 63) >>> 6, direct);
+    }
+    
+    static LongBuffer longs(int count, boolean direct) {
+        if (!direct)
+            return LongBuffer.wrap(new long[count]);
+        if (count > Integer.MAX_VALUE / 8)
+            throw new IllegalArgumentException(count + " words do not fit one direct buffer");
+        
+        return ByteBuffer.allocateDirect(count * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+    
+    static IntBuffer ints(int count, boolean direct) {
+        if (!direct)
+            return IntBuffer.wrap(new int[count]);
+        if (count > Integer.MAX_VALUE / 4)
+            throw new IllegalArgumentException(count + " entries do not fit one direct buffer");
+        
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+    
+    static boolean get(LongBuffer bits, int i) {
+        return (bits.get(i >>> 6) & (1L << i)) != 0;
+    }
+    
+    static void set(LongBuffer bits, int i) {
+        int w = i >>> 6;
+        bits.put(w, bits.get(w) | 1L << i);
+    }
+    
+    static void clear(LongBuffer bits, int i) {
+        int w = i >>> 6;
+        bits.put(w, bits.get(w) & ~(1L << i));
+    }
+    
+    /** zeroes every word */
+    static void clear(LongBuffer bits) {
+        if (bits.hasArray()) {
+            Arrays.fill(bits.array(), 0);
+            return;
+        }
+        
+        for (int w = 0, end = bits.limit(); w < end; ++w)
+            bits.put(w, 0);
+    }
+}
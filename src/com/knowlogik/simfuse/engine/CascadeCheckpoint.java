@@ -0,0 +1,100 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Immutable copy of a {@link CascadeState} at some tick, to branch continuations from without
+ * replaying the shared prefix.
+ * 
+ * Only the failure order, the size of the expanded prefix, the tick and the random stream are kept.
+ * Everything else is implied by them: the failed edges are the edges of the failed nodes, the
+ * per-layer counters follow from both, and the checked nodes are exactly the neighbors of the nodes
+ * that have spread. So a checkpoint costs 4 bytes per failed node, and restoring one costs the
+ * failed nodes' degrees rather than the graph size.
+ * 
+ * Propagation settings are not part of the state; branches are free to use different ones.
+ */
+public final class CascadeCheckpoint {
+    
+    private final int nodeCount;
+    private final int edgeCount;
+    private final int tick;
+    private final int[] failed;
+    private final int expanded;
+    private final long randomState;
+    
+    /**
+     * @param nodeCount
+     *            node count of the graph the state belongs to
+     * @param edgeCount
+     *            edge count of the same graph
+     * @param failed
+     *            failed nodes in failure order
+     * @param expanded
+     *            how many of them have already spread
+     * @param randomState
+     *            state of the cascade's {@link RandomStream}
+     */
+    public CascadeCheckpoint(int nodeCount, int edgeCount, int tick, int[] failed, int expanded, long randomState) {
+        if (tick < 0 || expanded < 0 || expanded > failed.length || failed.length > nodeCount)
+            throw new IllegalArgumentException("inconsistent checkpoint: tick " + tick + ", " + expanded + " of " + failed.length + " failed nodes expanded");
+        
+        for (int node : failed) {
+            if (node < 0 || node >= nodeCount)
+                throw new IllegalArgumentException("checkpoint node " + node + " out of range");
+        }
+        
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.tick = tick;
+        this.failed = failed.clone();
+        this.expanded = expanded;
+        this.randomState = randomState;
+    }
+    
+    /** the unexpanded seeds failed at tick 0 */
+    public static CascadeCheckpoint forSeeds(CascadeGraph graph, int[] seeds) {
+        CascadeState state = new CascadeState(graph);
+        state.fail(seeds, 0, seeds.length);
+        
+        return state.checkpoint();
+    }
+    
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+    
+    public int getTick() {
+        return tick;
+    }
+    
+    public int getFailedCount() {
+        return failed.length;
+    }
+    
+    /** i-th node to fail, in failure order */
+    public int getFailed(int i) {
+        return failed[i];
+    }
+    
+    /** number of failed nodes, from the front of the failure order, that have spread */
+    public int getExpandedCount() {
+        return expanded;
+    }
+    
+    public long getRandomState() {
+        return randomState;
+    }
+    
+    /** true if this was taken on a graph of the same shape */
+    public boolean fits(CascadeGraph graph) {
+        return graph.nodeCount == nodeCount && graph.edgeCount == edgeCount;
+    }
+    
+    /** failure order without a copy, for {@link CascadeState#restore(CascadeCheckpoint)} */
+    int[] failed() {
+        return failed;
+    }
+}
@@ -0,0 +1,107 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Headless probabilistic cascade over a {@link CascadeGraph}.
+ * 
+ * Each failed node tries once to fail each of its neighbors that has not been checked yet, using
+ * the {@link Propagation} probability for the pair of layers. A neighbor is checked after its first
+ * try whether or not it failed, so a node has nothing left to do after it has been expanded once.
+ * Each tick therefore only expands the frontier: the nodes that failed (or were seeded) since the
+ * previous tick. Nodes that fail during a tick join the frontier of the next one.
+ * 
+ * A tick expands its frontier in node (row) order, as the original viewer did when it walked the
+ * failed items, not in the order the nodes failed. Where two sources share an unchecked neighbor
+ * the one with the lower index gets the chance, which matters when its layer pair's probability
+ * differs from the other's; it also makes the order the same for every trial.
+ * 
+ * Draws come from the state's own {@link RandomStream}, so a cascade is reproducible from its seed.
+ * 
+ * A weighted propagation is turned into one threshold per adjacency slot up front, so trying a
+ * neighbor stays a single compare. Where every weight is 1 it fails the same nodes on the same
+ * draws as the unweighted one.
+ */
+public class CascadeEngine implements CascadeModel {
+    
+    private final CascadeGraph graph;
+    private Propagation propagation;
+    
+    // hits per adjacency slot if the propagation is weighted, otherwise null
+    private int[] thresholds;
+    
+    public CascadeEngine(CascadeGraph graph, Propagation propagation) {
+        this.graph = graph;
+        setPropagation(propagation);
+    }
+    
+    @Override
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    public Propagation getPropagation() {
+        return propagation;
+    }
+    
+    public void setPropagation(Propagation propagation) {
+        if (propagation.getLayerCount() < graph.getNodeLayerCount())
+            throw new IllegalArgumentException("propagation covers " + propagation.getLayerCount() + " layers, the graph has " + graph.getNodeLayerCount());
+        
+        this.thresholds = propagation.isWeighted() ? propagation.thresholds(graph) : null;
+        this.propagation = propagation;
+    }
+    
+    @Override
+    public int step(CascadeState state) {
+        int end = state.failCount;
+        int count = end - state.expanded;
+        int[] frontier = state.sortedFrontier();
+        int[] weighted = thresholds;
+        
+        for (int i = 0; i < count; ++i) {
+            if (weighted != null)
+                process(state, frontier[i], weighted);
+            else
+                process(state, frontier[i]);
+        }
+        
+        state.expanded = end;
+        state.tick++;
+        
+        return state.failCount - end;
+    }
+    
+    private void process(CascadeState state, int node) {
+        int sourceLayer = graph.nodeLayer.get(node);
+        RandomStream random = state.random;
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int n = graph.targets.get(k);
+            
+            if (Bits.get(state.checked, n))
+                continue;
+            
+            int rnd = random.nextInt(100);
+            
+            if (rnd <= propagation.get(sourceLayer, graph.nodeLayer.get(n)))
+                state.fail(n, node);
+            
+            Bits.set(state.checked, n);
+        }
+    }
+    
+    private void process(CascadeState state, int node, int[] thresholds) {
+        RandomStream random = state.random;
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int n = graph.targets.get(k);
+            
+            if (Bits.get(state.checked, n))
+                continue;
+            
+            if (random.nextInt(100) < thresholds[k])
+                state.fail(n, node);
+            
+            Bits.set(state.checked, n);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Immutable interdependent network held in compressed sparse row form.
+ * 
+ * Nodes and edges are plain indices. The neighbors of node <code>u</code> are
+ * <code>targets[offsets[u] .. offsets[u + 1])</code>, and <code>edges</code> holds the edge index
+ * for each of those slots so that failures can be pushed onto incident edges. Every undirected edge
+ * appears once in the row of each endpoint. Layer membership is stored as byte codes into
+ * {@link #getNodeLayerName(int)} / {@link #getEdgeLayerName(int)}. Node names are a UTF-8 string
+ * table decoded on demand.
+ * 
+ * All columns are NIO buffers, so the same graph can sit on the heap (wrapped arrays, see
+ * {@link GraphBuilder}) or in a memory-mapped snapshot file without being copied.
+ * 
+ * A graph is safe to share between any number of simulations; all mutable state lives in
+ * {@link CascadeState}.
+ */
+public final class CascadeGraph {
+    
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    final int nodeCount;
+    final int edgeCount;
+    
+    final IntBuffer offsets;
+    final IntBuffer targets;
+    final IntBuffer edges;
+    
+    final ByteBuffer nodeLayer;
+    final ByteBuffer edgeLayer;
+    final IntBuffer edgeWeight;
+    
+    final IntBuffer nameOffsets;
+    final ByteBuffer nameBytes;
+    
+    final String[] nodeLayerNames;
+    final String[] edgeLayerNames;
+    final int[] nodeLayerCount;
+    final int[] edgeLayerCount;
+    
+    /**
+     * Wraps prebuilt columns. All buffers are used as is (absolute gets only) and must not change
+     * afterwards.
+     * 
+     * @param offsets
+     *            nodeCount + 1 row starts into targets/edges
+     * @param nameOffsets
+     *            nodeCount + 1 starts of each node's name in nameBytes
+     * @param nodeLayerCount
+     *            nodes per layer, or null to count them here
+     * @param edgeLayerCount
+     *            edges per edge layer, or null to count them here
+     */
+    public CascadeGraph(IntBuffer offsets, IntBuffer targets, IntBuffer edges, ByteBuffer nodeLayer, ByteBuffer edgeLayer, IntBuffer edgeWeight,
+            IntBuffer nameOffsets, ByteBuffer nameBytes, String[] nodeLayerNames, String[] edgeLayerNames, int[] nodeLayerCount, int[] edgeLayerCount) {
+        this.nodeCount = nodeLayer.limit();
+        this.edgeCount = edgeLayer.limit();
+        this.offsets = offsets;
+        this.targets = targets;
+        this.edges = edges;
+        this.nodeLayer = nodeLayer;
+        this.edgeLayer = edgeLayer;
+        this.edgeWeight = edgeWeight;
+        this.nameOffsets = nameOffsets;
+        this.nameBytes = nameBytes;
+        this.nodeLayerNames = nodeLayerNames.clone();
+        this.edgeLayerNames = edgeLayerNames.clone();
+        
+        if (nodeLayerCount == null) {
+            nodeLayerCount = new int[nodeLayerNames.length];
+            for (int i = 0; i < nodeCount; ++i)
+                nodeLayerCount[nodeLayer.get(i)]++;
+        }
+        
+        if (edgeLayerCount == null) {
+            edgeLayerCount = new int[edgeLayerNames.length];
+            for (int i = 0; i < edgeCount; ++i)
+                edgeLayerCount[edgeLayer.get(i)]++;
+        }
+        
+        this.nodeLayerCount = nodeLayerCount.clone();
+        this.edgeLayerCount = edgeLayerCount.clone();
+    }
+    
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+    
+    public int getDegree(int node) {
+        return offsets.get(node + 1) - offsets.get(node);
+    }
+    
+    /** first adjacency slot of node; neighbors run up to {@link #getAdjacencyEnd(int)} */
+    public int getAdjacencyStart(int node) {
+        return offsets.get(node);
+    }
+    
+    public int getAdjacencyEnd(int node) {
+        return offsets.get(node + 1);
+    }
+    
+    /** neighbor node stored in an adjacency slot */
+    public int getTarget(int slot) {
+        return targets.get(slot);
+    }
+    
+    /** edge index stored in an adjacency slot */
+    public int getEdge(int slot) {
+        return edges.get(slot);
+    }
+    
+    public int getNodeLayer(int node) {
+        return nodeLayer.get(node);
+    }
+    
+    public int getEdgeLayer(int edge) {
+        return edgeLayer.get(edge);
+    }
+    
+    public int getEdgeWeight(int edge) {
+        return edgeWeight.get(edge);
+    }
+    
+    public String getNodeName(int node) {
+        int start = nameOffsets.get(node);
+        byte[] bytes = new byte[nameOffsets.get(node + 1) - start];
+        
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = nameBytes.get(start + i);
+        
+        return new String(bytes, UTF8);
+    }
+    
+    /**
+     * @return index of the first node with the given name, or -1
+     */
+    public int findNode(String name) {
+        for (int i = 0; i < nodeCount; ++i)
+            if (name.equals(getNodeName(i)))
+                return i;
+        
+        return -1;
+    }
+    
+    public int getNodeLayerCount() {
+        return nodeLayerNames.length;
+    }
+    
+    public int getEdgeLayerCount() {
+        return edgeLayerNames.length;
+    }
+    
+    public String getNodeLayerName(int layer) {
+        return nodeLayerNames[layer];
+    }
+    
+    public String getEdgeLayerName(int layer) {
+        return edgeLayerNames[layer];
+    }
+    
+    /** number of nodes in a layer */
+    public int getNodeLayerSize(int layer) {
+        return nodeLayerCount[layer];
+    }
+    
+    /** number of edges in an edge layer */
+    public int getEdgeLayerSize(int layer) {
+        return edgeLayerCount[layer];
+    }
+    
+    // raw columns, read-only, for writers
+    
+    public IntBuffer getOffsetBuffer() {
+        return offsets.asReadOnlyBuffer();
+    }
+    
+    public IntBuffer getTargetBuffer() {
+        return targets.asReadOnlyBuffer();
+    }
+    
+    public IntBuffer getEdgeBuffer() {
+        return edges.asReadOnlyBuffer();
+    }
+    
+    public ByteBuffer getNodeLayerBuffer() {
+        return nodeLayer.asReadOnlyBuffer();
+    }
+    
+    public ByteBuffer getEdgeLayerBuffer() {
+        return edgeLayer.asReadOnlyBuffer();
+    }
+    
+    public IntBuffer getEdgeWeightBuffer() {
+        return edgeWeight.asReadOnlyBuffer();
+    }
+    
+    public IntBuffer getNameOffsetBuffer() {
+        return nameOffsets.asReadOnlyBuffer();
+    }
+    
+    public ByteBuffer getNameBuffer() {
+        return nameBytes.asReadOnlyBuffer();
+    }
+}
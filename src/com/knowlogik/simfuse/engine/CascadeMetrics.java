@@ -0,0 +1,89 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Failure percentages reported after each tick: all nodes, nodes per layer, all edges and edges
+ * per edge layer, in that order. Optionally followed by the size of each layer's giant component,
+ * as a percentage of the layer, which costs a pass over the components the tick's failures hit.
+ */
+public final class CascadeMetrics {
+    
+    private CascadeMetrics() {
+    }
+    
+    /** number of metric columns for a graph */
+    public static int size(CascadeGraph graph) {
+        return 2 + graph.getNodeLayerCount() + graph.getEdgeLayerCount();
+    }
+    
+    /** number of metric columns, with or without the giant component sizes */
+    public static int size(CascadeGraph graph, boolean giant) {
+        return size(graph) + (giant ? graph.getNodeLayerCount() : 0);
+    }
+    
+    /** column names, e.g. total, netA, netB, edgeTot, edgeA, edgeB, edgeAB */
+    public static String[] names(CascadeGraph graph) {
+        return names(graph, false);
+    }
+    
+    /** column names, with giantA, giantB, ... at the end if asked for */
+    public static String[] names(CascadeGraph graph, boolean giant) {
+        String[] names = new String[size(graph, giant)];
+        int c = 0;
+        
+        names[c++] = "total";
+        for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+            names[c++] = "net" + graph.getNodeLayerName(l);
+        
+        names[c++] = "edgeTot";
+        for (int l = 0; l < graph.getEdgeLayerCount(); ++l)
+            names[c++] = "edge" + graph.getEdgeLayerName(l);
+        
+        if (giant) {
+            for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+                names[c++] = "giant" + graph.getNodeLayerName(l);
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Fills <code>out</code> with the current failure percentages.
+     * 
+     * @return out
+     */
+    public static double[] compute(CascadeState state, double[] out) {
+        return compute(state, false, out);
+    }
+    
+    /**
+     * Fills <code>out</code> with the current failure percentages and, if asked for, giant component
+     * sizes.
+     * 
+     * @return out
+     */
+    public static double[] compute(CascadeState state, boolean giant, double[] out) {
+        CascadeGraph graph = state.graph;
+        int c = 0;
+        
+        out[c++] = percent(state.failCount, graph.nodeCount);
+        for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+            out[c++] = percent(state.failedByNodeLayer[l], graph.nodeLayerCount[l]);
+        
+        out[c++] = percent(state.failedEdgeCount, graph.edgeCount);
+        for (int l = 0; l < graph.getEdgeLayerCount(); ++l)
+            out[c++] = percent(state.failedByEdgeLayer[l], graph.edgeLayerCount[l]);
+        
+        if (giant) {
+            GiantComponents components = state.getComponents();
+            
+            for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+                out[c++] = percent(components.getGiantSize(l), graph.nodeLayerCount[l]);
+        }
+        
+        return out;
+    }
+    
+    private static double percent(double failed, double count) {
+        return (failed / count) * 100;
+    }
+}
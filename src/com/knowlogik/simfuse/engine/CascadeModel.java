@@ -0,0 +1,31 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Rule by which failures spread, one tick at a time.
+ * 
+ * Models keep no state of their own between ticks; everything a cascade needs lives in its
+ * {@link CascadeState}, so one model can step any number of states, on any number of threads.
+ */
+public interface CascadeModel {
+    
+    CascadeGraph getGraph();
+    
+    /**
+     * Fresh state at tick 0 that this model can step; a plain {@link CascadeState} unless the
+     * model reads its graph some other way.
+     * 
+     * @param direct
+     *            keep the state in native memory, see {@link CascadeState#allocateDirect}
+     */
+    default CascadeState newState(boolean direct) {
+        return direct ? CascadeState.allocateDirect(getGraph()) : new CascadeState(getGraph());
+    }
+    
+    /**
+     * Advances the cascade by one tick, spreading from the frontier; nodes failed during the tick
+     * form the next one.
+     * 
+     * @return number of nodes that failed during the tick
+     */
+    int step(CascadeState state);
+}
@@ -0,0 +1,218 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Steps a cascade on its own thread and publishes a {@link CascadeSnapshot} after every tick.
+ * 
+ * Readers (a display sampling at its frame rate, say) only ever touch the latest snapshot, so they
+ * neither slow the engine down nor wait for it. With a period of 0 ticks run back to back; with a
+ * period set each tick takes at least that long. Once nothing is left to spread the thread sleeps
+ * until {@link #fail(int)} gives it a new frontier or the runner is stopped.
+ * 
+ * All changes to the state while a runner owns it must go through the runner.
+ */
+public class CascadeRunner {
+    
+    /**
+     * called on the runner thread after every tick
+     */
+    public interface Listener {
+        
+        void tick(CascadeSnapshot snapshot);
+    }
+    
+    private CascadeModel engine;
+    private final CascadeState state;
+    private final Object lock = new Object();
+    
+    private volatile CascadeSnapshot snapshot;
+    private volatile long period = 0;
+    private Listener listener = null;
+    
+    private long generation = 0;
+    private Thread thread = null;
+    private boolean running = false;
+    
+    public CascadeRunner(CascadeModel engine, CascadeState state) {
+        this.engine = engine;
+        this.state = state;
+        this.snapshot = snapshot();
+    }
+    
+    /** switches the rule the cascade follows from the next tick on */
+    public void setModel(CascadeModel engine) {
+        synchronized (lock) {
+            this.engine = engine;
+        }
+    }
+    
+    public void setListener(Listener listener) {
+        synchronized (lock) {
+            this.listener = listener;
+        }
+    }
+    
+    /**
+     * @param millis
+     *            minimum time per tick; 0 runs as fast as the engine goes
+     */
+    public void setPeriod(long millis) {
+        period = millis;
+    }
+    
+    /** latest published state; never null */
+    public CascadeSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+    
+    public void start() {
+        synchronized (lock) {
+            if (running)
+                return;
+            
+            running = true;
+            thread = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "simfuse-engine");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /**
+     * Stops after the current tick and waits for the thread to finish.
+     */
+    public void stop() {
+        Thread t;
+        
+        synchronized (lock) {
+            if (!running)
+                return;
+            
+            running = false;
+            t = thread;
+            thread = null;
+            lock.notifyAll();
+        }
+        
+        if (t == Thread.currentThread())
+            return;
+        
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Fails a node now, e.g. a seed clicked while the cascade runs, and wakes the runner.
+     */
+    public boolean fail(int node) {
+        synchronized (lock) {
+            boolean failed = state.fail(node);
+            
+            if (failed) {
+                snapshot = snapshot();
+                lock.notifyAll();
+            }
+            
+            return failed;
+        }
+    }
+    
+    /**
+     * Fails a batch of nodes with a single snapshot, see {@link CascadeState#fail(int[], int, int)}.
+     * 
+     * @return number of nodes that failed now
+     */
+    public int fail(int[] nodes, int from, int to) {
+        synchronized (lock) {
+            int failed = state.fail(nodes, from, to);
+            
+            if (failed > 0) {
+                snapshot = snapshot();
+                lock.notifyAll();
+            }
+            
+            return failed;
+        }
+    }
+    
+    /**
+     * Stops the runner and resets the state; the next snapshot starts a new generation.
+     */
+    public void clear() {
+        stop();
+        
+        synchronized (lock) {
+            state.clear();
+            generation++;
+            snapshot = snapshot();
+        }
+    }
+    
+    private void loop() {
+        while (true) {
+            CascadeSnapshot s;
+            Listener l;
+            long start = System.nanoTime();
+            
+            synchronized (lock) {
+                while (running && state.isDone()) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        // only stop() ends the loop
+                    }
+                }
+                
+                if (!running)
+                    return;
+                
+                engine.step(state);
+                snapshot = s = snapshot();
+                l = listener;
+            }
+            
+            if (l != null)
+                l.tick(s);
+            
+            long wait = period - (System.nanoTime() - start) / 1000000;
+            if (wait > 0) {
+                synchronized (lock) {
+                    try {
+                        if (running)
+                            lock.wait(wait);
+                    }
+                    catch (InterruptedException e) {
+                        // checked on the next pass
+                    }
+                }
+            }
+        }
+    }
+    
+    /** call with the lock held */
+    private CascadeSnapshot snapshot() {
+        double[] metrics = new double[CascadeMetrics.size(state.graph)];
+        return new CascadeSnapshot(generation, state, CascadeMetrics.compute(state, metrics));
+    }
+}
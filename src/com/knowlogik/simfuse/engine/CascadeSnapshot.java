@@ -0,0 +1,77 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.IntBuffer;
+
+/**
+ * Immutable view of a cascade as of one tick, published by {@link CascadeRunner} for readers on
+ * other threads.
+ * 
+ * The failure order is shared with the live state rather than copied: entries below the snapshot's
+ * failed count are never rewritten until the state is cleared, which starts a new generation.
+ * Readers that see a new generation start over.
+ */
+public final class CascadeSnapshot {
+    
+    private final long generation;
+    private final int tick;
+    private final int failedCount;
+    private final IntBuffer failList;
+    private final double[] metrics;
+    private final boolean done;
+    
+    CascadeSnapshot(long generation, CascadeState state, double[] metrics) {
+        this.generation = generation;
+        this.tick = state.tick;
+        this.failedCount = state.failCount;
+        this.failList = state.failList;
+        this.metrics = metrics;
+        this.done = state.isDone();
+    }
+    
+    /** bumped every time the state is cleared */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public int getTick() {
+        return tick;
+    }
+    
+    public int getFailedCount() {
+        return failedCount;
+    }
+    
+    /** i-th node to fail, for i below {@link #getFailedCount()} */
+    public int getFailed(int i) {
+        if (i >= failedCount)
+            throw new IndexOutOfBoundsException(i + " >= " + failedCount);
+        
+        return failList.get(i);
+    }
+    
+    /**
+     * Copies the nodes that failed <code>from..to</code> (in failure order) into <code>dst</code>,
+     * starting at <code>offset</code>.
+     */
+    public void getFailed(int from, int to, int[] dst, int offset) {
+        if (from < 0 || to > failedCount || from > to)
+            throw new IndexOutOfBoundsException(from + ".." + to + " of " + failedCount);
+        
+        IntBuffer view = failList.duplicate();
+        view.position(from);
+        view.get(dst, offset, to - from);
+    }
+    
+    /** {@link CascadeMetrics} values at this tick */
+    public double[] getMetrics() {
+        return metrics.clone();
+    }
+    
+    public double getMetric(int i) {
+        return metrics[i];
+    }
+    
+    public boolean isDone() {
+        return done;
+    }
+}
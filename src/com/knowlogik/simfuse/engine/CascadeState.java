@@ -0,0 +1,459 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Mutable failure state of one cascade over a shared {@link CascadeGraph}.
+ * 
+ * Failed nodes, failed edges and checked nodes (neighbors that have already had their one chance
+ * to fail) are bitmaps. Failed nodes are also kept in the order they failed; the entries past
+ * <code>expanded</code> are the frontier the engine still has to spread from.
+ * 
+ * Like the graph's columns, the bitmaps and the failure order are NIO buffers: wrapped arrays by
+ * default, or direct buffers in native memory (see {@link #allocateDirect(CascadeGraph)}), so that
+ * states for very large graphs stay out of the heap and the GC only sees their handles.
+ * 
+ * A state over a {@link CompactAdjacency} (see {@link #compact(CompactAdjacency, boolean)}) reads
+ * neighbors from the compressed rows only and keeps no edge bitmap: an edge fails with whichever
+ * of its endpoints fails first, so it is counted when a node fails next to one still up.
+ * 
+ * With {@link #setRecordingSources(boolean)} the state also notes which failed neighbor each node
+ * was failed by, for traces; seeds, clicks and failures the model does not attribute have none.
+ */
+public class CascadeState {
+    
+    final CascadeGraph graph;
+    
+    // null unless neighbors come from compressed rows
+    final CompactAdjacency adjacency;
+    
+    final LongBuffer failedNodes;
+    final LongBuffer failedEdges;
+    final LongBuffer checked;
+    
+    final IntBuffer failList;
+    int failCount = 0;
+    
+    // source per entry of failList, or null if not recorded
+    private IntBuffer sources = null;
+    int expanded = 0;
+    
+    // scratch for sortedFrontier(), grown on demand
+    private int[] frontier = new int[16];
+    
+    final int[] failedByNodeLayer;
+    final int[] failedByEdgeLayer;
+    int failedEdgeCount = 0;
+    
+    int tick = 0;
+    
+    final RandomStream random = new RandomStream(0);
+    
+    // built on first use; most cascades never look at connectivity
+    private GiantComponents components = null;
+    
+    public CascadeState(CascadeGraph graph) {
+        this(graph, null, false);
+    }
+    
+    private CascadeState(CascadeGraph graph, CompactAdjacency adjacency, boolean direct) {
+        this.graph = graph;
+        this.adjacency = adjacency;
+        
+        failedNodes = Bits.create(graph.nodeCount, direct);
+        failedEdges = Bits.create(adjacency == null ? graph.edgeCount : 0, direct);
+        checked = Bits.create(graph.nodeCount, direct);
+        failList = Bits.ints(graph.nodeCount, direct);
+        
+        failedByNodeLayer = new int[graph.getNodeLayerCount()];
+        failedByEdgeLayer = new int[graph.getEdgeLayerCount()];
+    }
+    
+    /**
+     * State kept in native memory rather than on the heap; it is freed once the state is
+     * unreachable, like any direct buffer.
+     */
+    public static CascadeState allocateDirect(CascadeGraph graph) {
+        return new CascadeState(graph, null, true);
+    }
+    
+    /**
+     * State over the compressed rows of the adjacency's graph, for
+     * {@link CompactCascadeEngine}; {@link #isEdgeFailed(int)} is not available.
+     * 
+     * @param direct
+     *            in native memory, as by {@link #allocateDirect(CascadeGraph)}
+     */
+    public static CascadeState compact(CompactAdjacency adjacency, boolean direct) {
+        return new CascadeState(adjacency.graph, adjacency, direct);
+    }
+    
+    /** the compressed rows this state reads, or null */
+    public CompactAdjacency getAdjacency() {
+        return adjacency;
+    }
+    
+    public boolean isDirect() {
+        return failList.isDirect();
+    }
+    
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    /** stream the engine draws from for this cascade */
+    public RandomStream getRandom() {
+        return random;
+    }
+    
+    /**
+     * Also keep, from the next failure on, the node each failure spread from; see
+     * {@link #getSource(int)}.
+     */
+    public void setRecordingSources(boolean recording) {
+        if (!recording)
+            sources = null;
+        else if (sources == null) {
+            sources = Bits.ints(graph.nodeCount, isDirect());
+            
+            for (int i = 0; i < failCount; ++i)
+                sources.put(i, -1);
+        }
+    }
+    
+    public boolean isRecordingSources() {
+        return sources != null;
+    }
+    
+    /**
+     * Marks a node and all of its edges as failed.
+     * 
+     * @return false if the node had already failed
+     */
+    public boolean fail(int node) {
+        return fail(node, -1);
+    }
+    
+    /**
+     * {@link #fail(int)} by a failed neighbor, which is recorded as the failure's source if sources
+     * are being recorded
+     */
+    boolean fail(int node, int source) {
+        if (Bits.get(failedNodes, node))
+            return false;
+        
+        Bits.set(failedNodes, node);
+        if (sources != null)
+            sources.put(failCount, source);
+        failList.put(failCount++, node);
+        failedByNodeLayer[graph.nodeLayer.get(node)]++;
+        
+        if (adjacency != null) {
+            failedEdgeCount += failCompactEdges(node);
+            return true;
+        }
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int e = graph.edges.get(k);
+            
+            // only fail the edge if it's not already failed
+            if (!Bits.get(failedEdges, e)) {
+                Bits.set(failedEdges, e);
+                failedByEdgeLayer[graph.edgeLayer.get(e)]++;
+                failedEdgeCount++;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Fails <code>nodes[from..to)</code> and their edges in one pass, e.g. all the nodes clicked or
+     * drawn in one tick. Nodes that already failed, or appear twice, are skipped.
+     * 
+     * @return number of nodes that failed now
+     */
+    public int fail(int[] nodes, int from, int to) {
+        int before = failCount;
+        int edgeCount = 0;
+        
+        for (int i = from; i < to; ++i) {
+            int node = nodes[i];
+            
+            if (Bits.get(failedNodes, node))
+                continue;
+            
+            Bits.set(failedNodes, node);
+            if (sources != null)
+                sources.put(failCount, -1);
+            failList.put(failCount++, node);
+            failedByNodeLayer[graph.nodeLayer.get(node)]++;
+            
+            if (adjacency != null) {
+                edgeCount += failCompactEdges(node);
+                continue;
+            }
+            
+            for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+                int e = graph.edges.get(k);
+                
+                if (!Bits.get(failedEdges, e)) {
+                    Bits.set(failedEdges, e);
+                    failedByEdgeLayer[graph.edgeLayer.get(e)]++;
+                    edgeCount++;
+                }
+            }
+        }
+        
+        failedEdgeCount += edgeCount;
+        
+        return failCount - before;
+    }
+    
+    /**
+     * Counts the edges of a node that has just failed whose other end is still up, self loops
+     * included.
+     * 
+     * @return number of edges that failed with it
+     */
+    private int failCompactEdges(int node) {
+        CompactAdjacency a = adjacency;
+        int count = 0;
+        
+        for (int at = a.rows.get(node), end = a.rows.get(node + 1), n = 0; at < end;) {
+            long entry = a.entry(at);
+            at += CompactAdjacency.length(entry);
+            n += a.gap(entry);
+            
+            if (n == node || !Bits.get(failedNodes, n)) {
+                failedByEdgeLayer[a.layer(entry)]++;
+                count++;
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Resets to the unfailed network at tick 0.
+     * 
+     * Only the bits the last cascade touched are cleared, found through the fail list, so a small
+     * cascade on a large graph is cheap to undo. Once a sizable share of the graph has failed the
+     * bitmaps are wiped wholesale instead.
+     */
+    public void clear() {
+        if (failCount > graph.nodeCount >>> 6) {
+            Bits.clear(failedNodes);
+            Bits.clear(failedEdges);
+            Bits.clear(checked);
+        }
+        else {
+            // checked nodes are exactly the neighbors of the nodes that have spread
+            for (int i = 0; i < expanded; ++i)
+                markNeighbors(failList.get(i), false);
+            
+            for (int i = 0; i < failCount; ++i) {
+                int node = failList.get(i);
+                Bits.clear(failedNodes, node);
+                
+                if (adjacency != null)
+                    continue;
+                
+                for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k)
+                    Bits.clear(failedEdges, graph.edges.get(k));
+            }
+        }
+        
+        Arrays.fill(failedByNodeLayer, 0);
+        Arrays.fill(failedByEdgeLayer, 0);
+        
+        if (components != null)
+            components.reset();
+        
+        failCount = 0;
+        expanded = 0;
+        failedEdgeCount = 0;
+        tick = 0;
+    }
+    
+    /**
+     * Resets to a copy of <code>baseline</code>, e.g. a network with its seeds failed, at the cost of
+     * both cascades' failures rather than the graph size. The baseline is only read, so one can be
+     * shared by states on several threads.
+     */
+    public void restore(CascadeState baseline) {
+        if (baseline.graph != graph)
+            throw new IllegalArgumentException("baseline is for a different graph");
+        
+        restore(baseline.failList, baseline.failCount, baseline.expanded, baseline.tick, baseline.random.getState());
+    }
+    
+    /**
+     * Compact copy of the state as it is now; see {@link CascadeCheckpoint}.
+     */
+    public CascadeCheckpoint checkpoint() {
+        int[] failed = new int[failCount];
+        for (int i = 0; i < failCount; ++i)
+            failed[i] = failList.get(i);
+        
+        return new CascadeCheckpoint(graph.nodeCount, graph.edgeCount, tick, failed, expanded, random.getState());
+    }
+    
+    /**
+     * Resets to the state a checkpoint was taken from, random stream included, so stepping on
+     * continues the cascade exactly as it would have gone on. Checkpoints are only read and can be
+     * restored into many states at once.
+     */
+    public void restore(CascadeCheckpoint checkpoint) {
+        if (!checkpoint.fits(graph))
+            throw new IllegalArgumentException("checkpoint is for a different graph");
+        
+        int[] nodes = checkpoint.failed();
+        restore(IntBuffer.wrap(nodes), nodes.length, checkpoint.getExpandedCount(), checkpoint.getTick(), checkpoint.getRandomState());
+    }
+    
+    private void restore(IntBuffer nodes, int count, int expanded, int tick, long randomState) {
+        clear();
+        
+        // refails in the original order, which rebuilds the edge bits and counters
+        for (int i = 0; i < count; ++i) {
+            if (!fail(nodes.get(i))) {
+                clear();
+                throw new IllegalArgumentException("a node fails twice in the restored state");
+            }
+        }
+        
+        for (int i = 0; i < expanded; ++i)
+            markNeighbors(nodes.get(i), true);
+        
+        this.expanded = expanded;
+        this.tick = tick;
+        random.setState(randomState);
+    }
+    
+    /** sets or clears the checked bits of a node's neighbors */
+    private void markNeighbors(int node, boolean set) {
+        if (adjacency == null) {
+            for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+                if (set)
+                    Bits.set(checked, graph.targets.get(k));
+                else
+                    Bits.clear(checked, graph.targets.get(k));
+            }
+            
+            return;
+        }
+        
+        CompactAdjacency a = adjacency;
+        
+        for (int at = a.rows.get(node), end = a.rows.get(node + 1), n = 0; at < end;) {
+            long entry = a.entry(at);
+            at += CompactAdjacency.length(entry);
+            n += a.gap(entry);
+            
+            if (set)
+                Bits.set(checked, n);
+            else
+                Bits.clear(checked, n);
+        }
+    }
+    
+    /**
+     * Per layer connected components of the surviving nodes, brought up to date with the failures
+     * so far. The first call labels the intact graph; later ones only redo what failed since.
+     */
+    public GiantComponents getComponents() {
+        if (components == null)
+            components = new GiantComponents(this);
+        
+        components.update();
+        
+        return components;
+    }
+    
+    public boolean isFailed(int node) {
+        return Bits.get(failedNodes, node);
+    }
+    
+    /**
+     * @throws UnsupportedOperationException
+     *             for a state over compressed rows, which has no edge indices
+     */
+    public boolean isEdgeFailed(int edge) {
+        if (adjacency != null)
+            throw new UnsupportedOperationException("a compact state keeps no edge bits");
+        
+        return Bits.get(failedEdges, edge);
+    }
+    
+    public boolean isChecked(int node) {
+        return Bits.get(checked, node);
+    }
+    
+    /** number of failed nodes */
+    public int getFailedCount() {
+        return failCount;
+    }
+    
+    /** i-th node to fail, in failure order */
+    public int getFailed(int i) {
+        return failList.get(i);
+    }
+    
+    /**
+     * Node the i-th failure spread from, or -1 for a seed, a failure restored from a checkpoint or
+     * baseline, or one recorded while sources were not being kept.
+     */
+    public int getSource(int i) {
+        if (i >= failCount)
+            throw new IndexOutOfBoundsException(i + " >= " + failCount);
+        
+        return sources != null ? sources.get(i) : -1;
+    }
+    
+    /** number of failed nodes that have not spread yet */
+    public int getFrontierSize() {
+        return failCount - expanded;
+    }
+    
+    /**
+     * The frontier sorted by node, which is the order a tick expands it in; the array is reused by
+     * the next call.
+     * 
+     * @return {@link #getFrontierSize()} nodes at the front of a scratch array
+     */
+    int[] sortedFrontier() {
+        int count = failCount - expanded;
+        if (count > frontier.length)
+            frontier = new int[Math.max(count, Math.min(graph.nodeCount, frontier.length * 2))];
+        
+        for (int i = 0; i < count; ++i)
+            frontier[i] = failList.get(expanded + i);
+        Arrays.sort(frontier, 0, count);
+        
+        return frontier;
+    }
+    
+    /** true once nothing is left to spread, i.e. further ticks cannot fail anything */
+    public boolean isDone() {
+        return expanded == failCount;
+    }
+    
+    public int getFailedEdgeCount() {
+        return failedEdgeCount;
+    }
+    
+    public int getFailedNodes(int layer) {
+        return failedByNodeLayer[layer];
+    }
+    
+    public int getFailedEdges(int layer) {
+        return failedByEdgeLayer[layer];
+    }
+    
+    public int getTick() {
+        return tick;
+    }
+}
@@ -0,0 +1,172 @@
+package com.knowlogik.simfuse.engine;
+
+import java.util.Arrays;
+
+/**
+ * Immutable record of one cascade: every failure in order, with the node it spread from and the
+ * layers of both, plus a tick index, so any tick can be shown without running the cascade again.
+ * 
+ * Failures are kept in the order they happened, which is also tick order, and the index holds the
+ * number of failures by the end of each tick from the first; the failures of tick t are therefore
+ * the range between two index entries, and seeking to a tick costs nothing but a lookup.
+ * 
+ * Sources are only known if the state recorded them (see
+ * {@link CascadeState#setRecordingSources(boolean)}); seeds and unattributed failures have source
+ * -1 and source layer -1.
+ */
+public final class CascadeTrace {
+    
+    private final int nodeCount;
+    private final int edgeCount;
+    private final long trial;
+    private final int firstTick;
+    private final int[] ends;
+    private final int[] nodes;
+    private final int[] sources;
+    private final byte[] layers;
+    private final byte[] sourceLayers;
+    
+    /**
+     * @param ends
+     *            failures by the end of each tick, from <code>firstTick</code> on; non-decreasing and
+     *            ending at the number of failures
+     */
+    public CascadeTrace(int nodeCount, int edgeCount, long trial, int firstTick, int[] ends, int[] nodes, int[] sources, byte[] layers, byte[] sourceLayers) {
+        int count = nodes.length;
+        
+        if (ends.length == 0 || ends[ends.length - 1] != count || sources.length != count || layers.length != count || sourceLayers.length != count)
+            throw new IllegalArgumentException("inconsistent trace of " + count + " failures");
+        
+        for (int t = 0; t < ends.length; ++t) {
+            if (ends[t] < (t > 0 ? ends[t - 1] : 0))
+                throw new IllegalArgumentException("trace tick index decreases at tick " + (firstTick + t));
+        }
+        
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.trial = trial;
+        this.firstTick = firstTick;
+        this.ends = ends.clone();
+        this.nodes = nodes.clone();
+        this.sources = sources.clone();
+        this.layers = layers.clone();
+        this.sourceLayers = sourceLayers.clone();
+    }
+    
+    /**
+     * Trace of a state as it is now.
+     * 
+     * @param ends
+     *            the state's failed count after each tick from <code>firstTick</code> on, the current
+     *            tick last
+     * @param ticks
+     *            number of entries of <code>ends</code> in use
+     */
+    public static CascadeTrace record(long trial, CascadeState state, int firstTick, int[] ends, int ticks) {
+        CascadeGraph graph = state.graph;
+        int count = state.failCount;
+        int[] nodes = new int[count];
+        int[] sources = new int[count];
+        byte[] layers = new byte[count];
+        byte[] sourceLayers = new byte[count];
+        
+        for (int i = 0; i < count; ++i) {
+            nodes[i] = state.failList.get(i);
+            sources[i] = state.getSource(i);
+            layers[i] = graph.nodeLayer.get(nodes[i]);
+            sourceLayers[i] = sources[i] >= 0 ? graph.nodeLayer.get(sources[i]) : -1;
+        }
+        
+        return new CascadeTrace(graph.nodeCount, graph.edgeCount, trial, firstTick, Arrays.copyOf(ends, ticks), nodes, sources, layers, sourceLayers);
+    }
+    
+    /** true if the trace could have been recorded on this graph */
+    public boolean fits(CascadeGraph graph) {
+        return graph.nodeCount == nodeCount && graph.edgeCount == edgeCount;
+    }
+    
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+    
+    public long getTrial() {
+        return trial;
+    }
+    
+    public int getFirstTick() {
+        return firstTick;
+    }
+    
+    public int getLastTick() {
+        return firstTick + ends.length - 1;
+    }
+    
+    /** number of failures in the whole trace */
+    public int getFailedCount() {
+        return nodes.length;
+    }
+    
+    /**
+     * @return number of failures by the end of a tick: none before the first tick, all after the
+     *         last
+     */
+    public int getFailedCount(int tick) {
+        if (tick < firstTick)
+            return 0;
+        
+        return ends[Math.min(tick - firstTick, ends.length - 1)];
+    }
+    
+    /** tick at which the i-th failure happened */
+    public int getTick(int i) {
+        if (i < 0 || i >= nodes.length)
+            throw new IndexOutOfBoundsException(i + " of " + nodes.length);
+        
+        // first tick whose end is past i
+        int lo = 0;
+        int hi = ends.length - 1;
+        
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            
+            if (ends[mid] > i)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        
+        return firstTick + lo;
+    }
+    
+    /** i-th node to fail */
+    public int getNode(int i) {
+        return nodes[i];
+    }
+    
+    /** node the i-th failure spread from, or -1 */
+    public int getSource(int i) {
+        return sources[i];
+    }
+    
+    /** layer of the i-th failed node */
+    public int getLayer(int i) {
+        return layers[i];
+    }
+    
+    /** layer of the i-th failure's source, or -1 */
+    public int getSourceLayer(int i) {
+        return sourceLayers[i];
+    }
+    
+    /**
+     * Copies the nodes that failed <code>from..to</code> (in failure order) into <code>dst</code>,
+     * starting at <code>offset</code>.
+     */
+    public void getNodes(int from, int to, int[] dst, int offset) {
+        System.arraycopy(nodes, from, dst, offset, to - from);
+    }
+}
@@ -0,0 +1,206 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressed copy of a graph's neighbor lists, for cascades whose speed is bound by memory
+ * bandwidth.
+ * 
+ * Each row is sorted by target and stored as varints, one per neighbor, holding the gap to the
+ * previous target shifted left by a few bits, with the edge layer code in those bits (two for the
+ * classic A, B and AB). Rows of a sparse graph mostly need one or two bytes per neighbor, against
+ * the eight of the plain <code>targets</code> and <code>edges</code> columns, and since a row is
+ * read front to back decoding it costs a few shifts per byte and allocates nothing.
+ * 
+ * Edge indices are not kept: whether an edge has failed follows from its endpoints, which is how a
+ * {@link CascadeState} over a compact adjacency counts failed edges. A self loop is stored once,
+ * not once per end. Node layers, names and counts still come from the graph.
+ */
+public final class CompactAdjacency {
+    
+    // a varint holds at most 31 + 7 bits, leaving the top of a long for its length
+    private static final int LENGTH_SHIFT = 58;
+    private static final long VALUE_MASK = (1L << LENGTH_SHIFT) - 1;
+    
+    final CascadeGraph graph;
+    final int layerBits;
+    final int layerMask;
+    
+    // row starts into data, nodeCount + 1
+    final IntBuffer rows;
+    final ByteBuffer data;
+    
+    private CompactAdjacency(CascadeGraph graph, int layerBits, IntBuffer rows, ByteBuffer data) {
+        this.graph = graph;
+        this.layerBits = layerBits;
+        this.layerMask = (1 << layerBits) - 1;
+        this.rows = rows;
+        this.data = data;
+    }
+    
+    /**
+     * @param direct
+     *            put the encoded rows in a direct buffer, out of the heap
+     */
+    public static CompactAdjacency encode(CascadeGraph graph, boolean direct) {
+        int n = graph.nodeCount;
+        int layerBits = 32 - Integer.numberOfLeadingZeros(Math.max(0, graph.getEdgeLayerCount() - 1));
+        
+        int maxDegree = 0;
+        for (int v = 0; v < n; ++v)
+            maxDegree = Math.max(maxDegree, graph.offsets.get(v + 1) - graph.offsets.get(v));
+        
+        // entries of one row as (target << layerBits | layer), sorted
+        long[] row = new long[maxDegree];
+        
+        // first pass sizes the rows, second writes them
+        IntBuffer rows = Bits.ints(n + 1, direct);
+        long size = 0;
+        
+        for (int v = 0; v < n; ++v) {
+            rows.put(v, (int) size);
+            int length = sortedRow(graph, v, layerBits, row);
+            size += encodedSize(row, length, layerBits);
+            
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("compact adjacency over 2 GB");
+        }
+        rows.put(n, (int) size);
+        
+        ByteBuffer data = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        int at = 0;
+        
+        for (int v = 0; v < n; ++v) {
+            int length = sortedRow(graph, v, layerBits, row);
+            int previous = 0;
+            
+            for (int i = 0; i < length; ++i) {
+                int target = (int) (row[i] >>> layerBits);
+                long value = (long) (target - previous) << layerBits | (row[i] & ((1 << layerBits) - 1));
+                previous = target;
+                
+                while (value >= 0x80) {
+                    data.put(at++, (byte) (value | 0x80));
+                    value >>>= 7;
+                }
+                data.put(at++, (byte) value);
+            }
+        }
+        
+        return new CompactAdjacency(graph, layerBits, rows, data);
+    }
+    
+    /** the graph the rows were taken from */
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    /** bytes taken by the encoded rows and their starts */
+    public long getByteSize() {
+        return data.capacity() + 4L * rows.capacity();
+    }
+    
+    /** bytes the plain targets and edges columns take */
+    public long getPlainByteSize() {
+        return 8L * graph.offsets.get(graph.nodeCount) + 4L * (graph.nodeCount + 1);
+    }
+    
+    /**
+     * Decodes a row into <code>targets</code> and <code>layers</code>, which must hold the node's
+     * degree; for callers outside the engine, which decode inline.
+     * 
+     * @return number of neighbors
+     */
+    public int getRow(int node, int[] targets, int[] layers) {
+        int count = 0;
+        
+        for (int at = rows.get(node), end = rows.get(node + 1), target = 0; at < end; ++count) {
+            long entry = entry(at);
+            at += length(entry);
+            target += gap(entry);
+            
+            targets[count] = target;
+            layers[count] = layer(entry);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * The varint at byte <code>at</code>, with its length in bytes in the top bits, so decoding
+     * needs neither a cursor object nor a second return value and can nest, e.g. failing a node while
+     * its neighbor's row is being walked.
+     */
+    long entry(int at) {
+        byte b = data.get(at);
+        if (b >= 0)
+            return 1L << LENGTH_SHIFT | b;
+        
+        long value = b & 0x7f;
+        int shift = 7;
+        int length = 1;
+        
+        do {
+            b = data.get(at + length++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        
+        return (long) length << LENGTH_SHIFT | value;
+    }
+    
+    static int length(long entry) {
+        return (int) (entry >>> LENGTH_SHIFT);
+    }
+    
+    /** distance from the previous target in the row, or from 0 for the first */
+    int gap(long entry) {
+        return (int) ((entry & VALUE_MASK) >>> layerBits);
+    }
+    
+    int layer(long entry) {
+        return (int) entry & layerMask;
+    }
+    
+    /**
+     * Fills <code>row</code> with the node's neighbors, self loops once.
+     * 
+     * @return row length
+     */
+    private static int sortedRow(CascadeGraph graph, int v, int layerBits, long[] row) {
+        int length = 0;
+        boolean self = false;
+        
+        for (int k = graph.offsets.get(v), end = graph.offsets.get(v + 1); k < end; ++k) {
+            int target = graph.targets.get(k);
+            
+            // a self loop sits in the row twice; keep every other copy
+            if (target == v && (self = !self) == false)
+                continue;
+            
+            row[length++] = (long) target << layerBits | graph.edgeLayer.get(graph.edges.get(k));
+        }
+        
+        Arrays.sort(row, 0, length);
+        
+        return length;
+    }
+    
+    private static long encodedSize(long[] row, int length, int layerBits) {
+        long size = 0;
+        int previous = 0;
+        
+        for (int i = 0; i < length; ++i) {
+            int target = (int) (row[i] >>> layerBits);
+            long value = (long) (target - previous) << layerBits;
+            previous = target;
+            
+            size += value < 0x80 ? 1 : (64 - Long.numberOfLeadingZeros(value) + 6) / 7;
+        }
+        
+        return size;
+    }
+}
@@ -0,0 +1,93 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * {@link CascadeEngine}'s spreading model over a {@link CompactAdjacency}, for graphs large enough
+ * that walking neighbor lists is bound by memory bandwidth.
+ * 
+ * The rules, draws and frontier order are the same; only neighbors are tried in target order, the
+ * order of the compressed rows, so a cascade matches the plain engine's on a graph whose rows are
+ * already sorted and otherwise only in distribution. States come from {@link #newState(boolean)} and never touch
+ * the graph's plain <code>targets</code> and <code>edges</code> columns, which, for a memory mapped
+ * snapshot, then stay out of the working set. Weighted propagation needs per edge weights and is not
+ * supported.
+ */
+public class CompactCascadeEngine implements CascadeModel {
+    
+    private final CompactAdjacency adjacency;
+    private final CascadeGraph graph;
+    private Propagation propagation;
+    
+    public CompactCascadeEngine(CompactAdjacency adjacency, Propagation propagation) {
+        this.adjacency = adjacency;
+        this.graph = adjacency.graph;
+        setPropagation(propagation);
+    }
+    
+    @Override
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    public CompactAdjacency getAdjacency() {
+        return adjacency;
+    }
+    
+    public Propagation getPropagation() {
+        return propagation;
+    }
+    
+    public void setPropagation(Propagation propagation) {
+        if (propagation.getLayerCount() < graph.getNodeLayerCount())
+            throw new IllegalArgumentException("propagation covers " + propagation.getLayerCount() + " layers, the graph has " + graph.getNodeLayerCount());
+        if (propagation.isWeighted())
+            throw new IllegalArgumentException("compressed rows carry no edge weights");
+        
+        this.propagation = propagation;
+    }
+    
+    /** a state over the same compressed rows */
+    @Override
+    public CascadeState newState(boolean direct) {
+        return CascadeState.compact(adjacency, direct);
+    }
+    
+    @Override
+    public int step(CascadeState state) {
+        if (state.adjacency != adjacency)
+            throw new IllegalArgumentException("state is not over this engine's adjacency");
+        
+        int end = state.failCount;
+        int count = end - state.expanded;
+        int[] frontier = state.sortedFrontier();
+        
+        for (int i = 0; i < count; ++i)
+            process(state, frontier[i]);
+        
+        state.expanded = end;
+        state.tick++;
+        
+        return state.failCount - end;
+    }
+    
+    private void process(CascadeState state, int node) {
+        CompactAdjacency a = adjacency;
+        int sourceLayer = graph.nodeLayer.get(node);
+        RandomStream random = state.random;
+        
+        for (int at = a.rows.get(node), end = a.rows.get(node + 1), n = 0; at < end;) {
+            long entry = a.entry(at);
+            at += CompactAdjacency.length(entry);
+            n += a.gap(entry);
+            
+            if (Bits.get(state.checked, n))
+                continue;
+            
+            int rnd = random.nextInt(100);
+            
+            if (rnd <= propagation.get(sourceLayer, graph.nodeLayer.get(n)))
+                state.fail(n, node);
+            
+            Bits.set(state.checked, n);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Connected components of each layer's surviving nodes, over the layer's own edges (the edge layer
+ * with the same name), kept up to date as a {@link CascadeState} fails nodes.
+ * 
+ * Failures only ever split components, so only the components that lost a node since the last
+ * update can have changed. Those are relabeled with one BFS per surviving piece, started from the
+ * failed nodes' surviving neighbors; every other label stays as it is. An update thus costs the
+ * size of the components that were hit, however many nodes failed in between, rather than the size
+ * of the graph. Components are also counted by size per layer, and since the largest size can only
+ * shrink, the giant component's size is found by walking that count down.
+ * 
+ * The labeling of the intact graph is computed once; {@link #reset()} goes back to it by undoing only
+ * what the last cascade changed.
+ */
+public class GiantComponents {
+    
+    private final CascadeState state;
+    private final CascadeGraph graph;
+    
+    // own edge layer per node layer, -1 if there is none
+    private final int[] layerEdge;
+    
+    // component label per node; size[label] is negated once the label is retired
+    private final int[] label;
+    private final int[] baseLabel;
+    private int[] size;
+    private int[] layerOf;
+    private int labelCount = 0;
+    private final int baseLabelCount;
+    
+    // components per layer by size, the largest size with any, and one label of that size
+    private final int[][] bySize;
+    private final int[] giant;
+    private final int[] giantLabel;
+    private final int[] baseGiant;
+    private final int[] baseGiantLabel;
+    
+    // what reset has to undo: nodes moved off their intact label, intact labels retired
+    private final int[] changed;
+    private int changedCount = 0;
+    private int[] retiredBase = new int[64];
+    private int retiredBaseCount = 0;
+    
+    // nodes relabeled since the last stray check, unless all of them have to be looked at
+    private final int[] relabeled;
+    private int relabeledCount = 0;
+    private boolean allRelabeled = true;
+    
+    private final int[] queue;
+    
+    // giant label per layer while failing strays
+    private final int[] keep;
+    
+    // failures accounted for so far
+    private int synced = 0;
+    
+    GiantComponents(CascadeState state) {
+        this.state = state;
+        this.graph = state.graph;
+        
+        int n = graph.nodeCount;
+        int layers = graph.getNodeLayerCount();
+        
+        layerEdge = new int[layers];
+        for (int l = 0; l < layers; ++l) {
+            layerEdge[l] = -1;
+            for (int e = 0; e < graph.getEdgeLayerCount(); ++e) {
+                if (graph.getEdgeLayerName(e).equals(graph.getNodeLayerName(l)))
+                    layerEdge[l] = e;
+            }
+        }
+        
+        label = new int[n];
+        size = new int[Math.max(16, n)];
+        layerOf = new int[size.length];
+        changed = new int[n];
+        relabeled = new int[n];
+        queue = new int[n];
+        giant = new int[layers];
+        giantLabel = new int[layers];
+        keep = new int[layers];
+        
+        // label the intact graph, whatever has failed already
+        Arrays.fill(label, -1);
+        Arrays.fill(giantLabel, -1);
+        
+        for (int v = 0; v < n; ++v) {
+            if (label[v] < 0) {
+                int l = graph.nodeLayer.get(v);
+                int c = newLabel(l);
+                size[c] = bfs(v, c, true);
+                
+                if (size[c] > giant[l]) {
+                    giant[l] = size[c];
+                    giantLabel[l] = c;
+                }
+            }
+        }
+        
+        bySize = new int[layers][];
+        for (int l = 0; l < layers; ++l)
+            bySize[l] = new int[giant[l] + 1];
+        for (int c = 0; c < labelCount; ++c)
+            bySize[layerOf[c]][size[c]]++;
+        
+        baseLabel = label.clone();
+        baseLabelCount = labelCount;
+        baseGiant = giant.clone();
+        baseGiantLabel = giantLabel.clone();
+    }
+    
+    /**
+     * Brings the components in line with the state's failures so far, in one batch.
+     */
+    void update() {
+        int end = state.failCount;
+        if (synced == end)
+            return;
+        
+        IntBuffer failList = state.failList;
+        
+        // every component that lost a node is gone...
+        for (int i = synced; i < end; ++i) {
+            int c = label[failList.get(i)];
+            
+            if (size[c] > 0) {
+                bySize[layerOf[c]][size[c]]--;
+                size[c] = -size[c];
+                
+                if (c < baseLabelCount) {
+                    if (retiredBaseCount == retiredBase.length)
+                        retiredBase = Arrays.copyOf(retiredBase, retiredBaseCount * 2);
+                    retiredBase[retiredBaseCount++] = c;
+                }
+            }
+        }
+        
+        // ...and what survives of it falls apart into the pieces next to the failed nodes
+        for (int i = synced; i < end; ++i) {
+            int v = failList.get(i);
+            int l = graph.nodeLayer.get(v);
+            
+            for (int k = graph.offsets.get(v), kEnd = graph.offsets.get(v + 1); k < kEnd; ++k) {
+                int u = graph.targets.get(k);
+                
+                if (!own(l, k, u) || Bits.get(state.failedNodes, u) || size[label[u]] > 0)
+                    continue;
+                
+                int c = newLabel(l);
+                size[c] = bfs(u, c, false);
+                bySize[l][size[c]]++;
+                
+                if (giantLabel[l] < 0 || size[c] > size[giantLabel[l]])
+                    giantLabel[l] = c;
+            }
+        }
+        
+        for (int l = 0; l < giant.length; ++l) {
+            while (giant[l] > 0 && bySize[l][giant[l]] == 0)
+                giant[l]--;
+        }
+        
+        synced = end;
+    }
+    
+    /**
+     * Back to the intact graph; called by {@link CascadeState#clear()}.
+     */
+    void reset() {
+        for (int i = 0; i < changedCount; ++i)
+            label[changed[i]] = baseLabel[changed[i]];
+        
+        for (int c = baseLabelCount; c < labelCount; ++c) {
+            if (size[c] > 0)
+                bySize[layerOf[c]][size[c]]--;
+        }
+        
+        for (int i = 0; i < retiredBaseCount; ++i) {
+            int c = retiredBase[i];
+            size[c] = -size[c];
+            bySize[layerOf[c]][size[c]]++;
+        }
+        
+        System.arraycopy(baseGiant, 0, giant, 0, giant.length);
+        System.arraycopy(baseGiantLabel, 0, giantLabel, 0, giantLabel.length);
+        
+        labelCount = baseLabelCount;
+        changedCount = 0;
+        retiredBaseCount = 0;
+        relabeledCount = 0;
+        allRelabeled = true;
+        synced = 0;
+    }
+    
+    /**
+     * Fails every surviving node outside its layer's giant component. Only nodes relabeled since the
+     * last call can have been cut off, so that is all this looks at, except on the first call after
+     * a reset.
+     * 
+     * @return number of nodes failed
+     */
+    int failStrays() {
+        update();
+        
+        int before = state.failCount;
+        for (int l = 0; l < keep.length; ++l)
+            keep[l] = getGiantLabel(l);
+        
+        if (allRelabeled) {
+            for (int v = 0; v < graph.nodeCount; ++v) {
+                if (label[v] != keep[graph.nodeLayer.get(v)])
+                    state.fail(v);
+            }
+        }
+        else {
+            for (int i = 0; i < relabeledCount; ++i) {
+                int v = relabeled[i];
+                
+                if (label[v] != keep[graph.nodeLayer.get(v)])
+                    state.fail(v);
+            }
+        }
+        
+        relabeledCount = 0;
+        allRelabeled = false;
+        
+        return state.failCount - before;
+    }
+    
+    /** number of surviving nodes in the layer's largest component */
+    public int getGiantSize(int layer) {
+        return giant[layer];
+    }
+    
+    /**
+     * @return label of the layer's largest component, or -1 if the whole layer failed; ties go to
+     *         the older component
+     */
+    public int getGiantLabel(int layer) {
+        if (giant[layer] == 0)
+            return -1;
+        if (giantLabel[layer] >= 0 && size[giantLabel[layer]] == giant[layer])
+            return giantLabel[layer];
+        
+        // the giant was hit and an untouched component is now the largest
+        for (int v = 0; v < graph.nodeCount; ++v) {
+            if (graph.nodeLayer.get(v) == layer && !Bits.get(state.failedNodes, v) && size[label[v]] == giant[layer])
+                return giantLabel[layer] = label[v];
+        }
+        
+        throw new IllegalStateException("no component of the giant size");
+    }
+    
+    /** component label of a surviving node; labels of failed nodes are stale */
+    public int getLabel(int node) {
+        return label[node];
+    }
+    
+    public boolean isInGiant(int node) {
+        return !Bits.get(state.failedNodes, node) && label[node] == getGiantLabel(graph.nodeLayer.get(node));
+    }
+    
+    /** whether slot k of node v's row is an edge of layer l to a node of the same layer */
+    private boolean own(int l, int k, int u) {
+        return graph.edgeLayer.get(graph.edges.get(k)) == layerEdge[l] && graph.nodeLayer.get(u) == l;
+    }
+    
+    private int newLabel(int layer) {
+        if (labelCount == size.length) {
+            size = Arrays.copyOf(size, labelCount * 2);
+            layerOf = Arrays.copyOf(layerOf, labelCount * 2);
+        }
+        
+        layerOf[labelCount] = layer;
+        size[labelCount] = 1; // positive, so the piece's own nodes count as reached
+        
+        return labelCount++;
+    }
+    
+    /**
+     * Labels the piece around <code>start</code>: on the intact graph, or over surviving nodes whose
+     * labels are retired, recording them for reset and the stray check.
+     * 
+     * @return size of the piece
+     */
+    private int bfs(int start, int c, boolean intact) {
+        int l = graph.nodeLayer.get(start);
+        int head = 0;
+        int tail = 0;
+        
+        relabel(start, c, intact);
+        queue[tail++] = start;
+        
+        while (head < tail) {
+            int v = queue[head++];
+            
+            for (int k = graph.offsets.get(v), end = graph.offsets.get(v + 1); k < end; ++k) {
+                int u = graph.targets.get(k);
+                
+                if (!own(l, k, u))
+                    continue;
+                if (intact ? label[u] >= 0 : (Bits.get(state.failedNodes, u) || size[label[u]] > 0))
+                    continue;
+                
+                relabel(u, c, intact);
+                queue[tail++] = u;
+            }
+        }
+        
+        return tail;
+    }
+    
+    private void relabel(int node, int c, boolean intact) {
+        if (!intact) {
+            if (label[node] < baseLabelCount)
+                changed[changedCount++] = node;
+            
+            // a node can be relabeled in several updates; past n entries just look at everything
+            if (!allRelabeled) {
+                if (relabeledCount < relabeled.length)
+                    relabeled[relabeledCount++] = node;
+                else
+                    allRelabeled = true;
+            }
+        }
+        
+        label[node] = c;
+    }
+}
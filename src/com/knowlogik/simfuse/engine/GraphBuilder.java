@@ -0,0 +1,218 @@
+package com.knowlogik.simfuse.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects nodes and edges in insertion order and packs them into a {@link CascadeGraph}.
+ * 
+ * Node indices are handed out sequentially by {@link #addNode(String, int)} so callers can keep
+ * their own mapping (prefuse row, GraphML id, ...) to engine indices. Layers are either fixed up
+ * front or registered as their netIDs turn up, see {@link #addNodeLayer(String)}; either way they
+ * end up as byte codes, so there can be at most {@link #MAX_LAYERS} of each kind.
+ */
+public class GraphBuilder {
+    
+    public static final int MAX_LAYERS = Byte.MAX_VALUE;
+    
+    private String[] nodeLayerNames;
+    private String[] edgeLayerNames;
+    
+    private int nodeCount = 0;
+    private byte[] nodeLayer = new byte[1024];
+    private String[] nodeNames = new String[1024];
+    
+    private int edgeCount = 0;
+    private int[] edgeSource = new int[1024];
+    private int[] edgeTarget = new int[1024];
+    private byte[] edgeLayer = new byte[1024];
+    private int[] edgeWeight = new int[1024];
+    
+    /** no layers yet; add them with {@link #addNodeLayer(String)} and {@link #addEdgeLayer(String)} */
+    public GraphBuilder() {
+        this(new String[0], new String[0]);
+    }
+    
+    public GraphBuilder(String[] nodeLayerNames, String[] edgeLayerNames) {
+        if (nodeLayerNames.length > MAX_LAYERS || edgeLayerNames.length > MAX_LAYERS)
+            throw new IllegalArgumentException("more than " + MAX_LAYERS + " layers");
+        
+        this.nodeLayerNames = nodeLayerNames.clone();
+        this.edgeLayerNames = edgeLayerNames.clone();
+    }
+    
+    /**
+     * @return layer code for a node netID, or -1 if the id is unknown
+     */
+    public int getNodeLayer(String netID) {
+        return indexOf(nodeLayerNames, netID);
+    }
+    
+    /**
+     * @return layer code for an edge netID, or -1 if the id is unknown
+     */
+    public int getEdgeLayer(String netID) {
+        return indexOf(edgeLayerNames, netID);
+    }
+    
+    /**
+     * @return layer code for a node netID, registering it as the next layer if it is new
+     */
+    public int addNodeLayer(String netID) {
+        int layer = getNodeLayer(netID);
+        
+        if (layer < 0) {
+            nodeLayerNames = addName(nodeLayerNames, netID);
+            layer = nodeLayerNames.length - 1;
+        }
+        
+        return layer;
+    }
+    
+    /**
+     * @return layer code for an edge netID, registering it as the next layer if it is new
+     */
+    public int addEdgeLayer(String netID) {
+        int layer = getEdgeLayer(netID);
+        
+        if (layer < 0) {
+            edgeLayerNames = addName(edgeLayerNames, netID);
+            layer = edgeLayerNames.length - 1;
+        }
+        
+        return layer;
+    }
+    
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+    
+    /**
+     * @return index of the new node
+     */
+    public int addNode(String name, int layer) {
+        if (nodeCount == nodeLayer.length) {
+            nodeLayer = Arrays.copyOf(nodeLayer, nodeCount * 2);
+            nodeNames = Arrays.copyOf(nodeNames, nodeCount * 2);
+        }
+        
+        nodeLayer[nodeCount] = (byte) layer;
+        nodeNames[nodeCount] = name;
+        
+        return nodeCount++;
+    }
+    
+    /**
+     * @return index of the new edge
+     */
+    public int addEdge(int source, int target, int layer, int weight) {
+        if (edgeCount == edgeLayer.length) {
+            edgeSource = Arrays.copyOf(edgeSource, edgeCount * 2);
+            edgeTarget = Arrays.copyOf(edgeTarget, edgeCount * 2);
+            edgeLayer = Arrays.copyOf(edgeLayer, edgeCount * 2);
+            edgeWeight = Arrays.copyOf(edgeWeight, edgeCount * 2);
+        }
+        
+        edgeSource[edgeCount] = source;
+        edgeTarget[edgeCount] = target;
+        edgeLayer[edgeCount] = (byte) layer;
+        edgeWeight[edgeCount] = weight;
+        
+        return edgeCount++;
+    }
+    
+    public CascadeGraph build() {
+        return build(false);
+    }
+    
+    /**
+     * @param direct
+     *            put the columns in direct buffers, so the graph lives outside the heap like a mapped
+     *            snapshot; the adjacency is written there straight away
+     */
+    public CascadeGraph build(boolean direct) {
+        int[] offsets = new int[nodeCount + 1];
+        
+        for (int e = 0; e < edgeCount; ++e) {
+            offsets[edgeSource[e] + 1]++;
+            offsets[edgeTarget[e] + 1]++;
+        }
+        
+        for (int i = 0; i < nodeCount; ++i)
+            offsets[i + 1] += offsets[i];
+        
+        IntBuffer targets = Bits.ints(offsets[nodeCount], direct);
+        IntBuffer edges = Bits.ints(offsets[nodeCount], direct);
+        int[] fill = Arrays.copyOf(offsets, nodeCount);
+        
+        for (int e = 0; e < edgeCount; ++e) {
+            int s = edgeSource[e];
+            int t = edgeTarget[e];
+            
+            targets.put(fill[s], t);
+            edges.put(fill[s]++, e);
+            targets.put(fill[t], s);
+            edges.put(fill[t]++, e);
+        }
+        
+        // name string table
+        byte[][] encoded = new byte[nodeCount][];
+        int[] nameOffsets = new int[nodeCount + 1];
+        
+        for (int i = 0; i < nodeCount; ++i) {
+            encoded[i] = nodeNames[i].getBytes(CascadeGraph.UTF8);
+            nameOffsets[i + 1] = nameOffsets[i] + encoded[i].length;
+        }
+        
+        byte[] nameBytes = new byte[nameOffsets[nodeCount]];
+        for (int i = 0; i < nodeCount; ++i)
+            System.arraycopy(encoded[i], 0, nameBytes, nameOffsets[i], encoded[i].length);
+        
+        return new CascadeGraph(ints(offsets, nodeCount + 1, direct), targets, edges, bytes(nodeLayer, nodeCount, direct), bytes(edgeLayer, edgeCount, direct),
+                ints(edgeWeight, edgeCount, direct), ints(nameOffsets, nodeCount + 1, direct), bytes(nameBytes, nameBytes.length, direct), nodeLayerNames,
+                edgeLayerNames, null, null);
+    }
+    
+    private static IntBuffer ints(int[] values, int length, boolean direct) {
+        if (!direct)
+            return IntBuffer.wrap(length == values.length ? values : Arrays.copyOf(values, length));
+        
+        IntBuffer buffer = Bits.ints(length, true);
+        buffer.put(values, 0, length).clear();
+        
+        return buffer;
+    }
+    
+    private static ByteBuffer bytes(byte[] values, int length, boolean direct) {
+        if (!direct)
+            return ByteBuffer.wrap(length == values.length ? values : Arrays.copyOf(values, length));
+        
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(values, 0, length).clear();
+        
+        return buffer;
+    }
+    
+    private static String[] addName(String[] names, String name) {
+        if (names.length == MAX_LAYERS)
+            throw new IllegalArgumentException("more than " + MAX_LAYERS + " layers, at netID '" + name + "'");
+        
+        names = Arrays.copyOf(names, names.length + 1);
+        names[names.length - 1] = name;
+        
+        return names;
+    }
+    
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; ++i)
+            if (names[i].equals(name))
+                return i;
+        
+        return -1;
+    }
+}
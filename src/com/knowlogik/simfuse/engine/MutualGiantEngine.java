@@ -0,0 +1,67 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Deterministic interdependent cascade after Buldyrev et al. (2010): a node only keeps working while
+ * it is in the giant component of its own layer and, if it depends on nodes of another layer (has
+ * edges to them, e.g. the AB edges), while at least one of those still works.
+ * 
+ * Each tick first fails the nodes whose last partner is in the frontier, then every node that is
+ * no longer connected to its layer's giant component, and both make up the next frontier. The
+ * cascade is over once a tick fails nothing. Connectivity comes from the state's
+ * {@link GiantComponents}, which only relabels the components the tick's failures hit.
+ * 
+ * No random draws are made, so trials from the same seeds all end the same way; the checked bitmap
+ * is not used.
+ */
+public class MutualGiantEngine implements CascadeModel {
+    
+    private final CascadeGraph graph;
+    
+    public MutualGiantEngine(CascadeGraph graph) {
+        this.graph = graph;
+    }
+    
+    @Override
+    public CascadeGraph getGraph() {
+        return graph;
+    }
+    
+    @Override
+    public int step(CascadeState state) {
+        int end = state.failCount;
+        
+        for (int i = state.expanded; i < end; ++i)
+            process(state, state.failList.get(i));
+        
+        state.expanded = end;
+        state.getComponents().failStrays();
+        state.tick++;
+        
+        return state.failCount - end;
+    }
+    
+    /** fails the partners of a failed node that have none left */
+    private void process(CascadeState state, int node) {
+        int layer = graph.nodeLayer.get(node);
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int n = graph.targets.get(k);
+            
+            if (graph.nodeLayer.get(n) != layer && !Bits.get(state.failedNodes, n) && !hasPartner(state, n))
+                state.fail(n);
+        }
+    }
+    
+    private boolean hasPartner(CascadeState state, int node) {
+        int layer = graph.nodeLayer.get(node);
+        
+        for (int k = graph.offsets.get(node), end = graph.offsets.get(node + 1); k < end; ++k) {
+            int n = graph.targets.get(k);
+            
+            if (graph.nodeLayer.get(n) != layer && !Bits.get(state.failedNodes, n))
+                return true;
+        }
+        
+        return false;
+    }
+}
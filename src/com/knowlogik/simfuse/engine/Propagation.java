@@ -0,0 +1,166 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Failure propagation probabilities, in percent, as a matrix over node layer codes.
+ * 
+ * A failed node in layer s fails an unchecked neighbor in layer t when a draw from [0, 100) is at
+ * or below entry (s, t). The matrix is kept flat, row by source layer, so the engine's per-edge
+ * lookup is a single array index.
+ * 
+ * Weighted propagation also takes the GraphML edge weight into account: an edge of weight w counts
+ * as w parallel links, each failing on its own chance, so a failure crosses it with probability
+ * 1 - (1 - q)^w for the pair's probability q. Weight 1 gives the unweighted chance and weight 0 or
+ * less never lets a failure across. The result is rounded to whole percent, so an engine can
+ * precompute one integer threshold per adjacency slot, see {@link #thresholds(CascadeGraph)}.
+ */
+public final class Propagation {
+    
+    private final int layers;
+    private final int[] table;
+    private final boolean weighted;
+    
+    /**
+     * @param matrix
+     *            square, <code>matrix[s][t]</code> for a failure crossing from layer s to layer t
+     */
+    public Propagation(int[][] matrix) {
+        layers = matrix.length;
+        table = new int[layers * layers];
+        weighted = false;
+        
+        for (int s = 0; s < layers; ++s) {
+            if (matrix[s].length != layers)
+                throw new IllegalArgumentException("propagation matrix row " + s + " has " + matrix[s].length + " entries, not " + layers);
+            
+            System.arraycopy(matrix[s], 0, table, s * layers, layers);
+        }
+    }
+    
+    /**
+     * @param intra
+     *            probability per node layer code
+     * @param inter
+     *            probability between any two different layers
+     */
+    public Propagation(int[] intra, int inter) {
+        layers = intra.length;
+        table = new int[layers * layers];
+        weighted = false;
+        
+        for (int s = 0; s < layers; ++s) {
+            for (int t = 0; t < layers; ++t)
+                table[s * layers + t] = s == t ? intra[s] : inter;
+        }
+    }
+    
+    /** two layer (A/B) settings */
+    public Propagation(int probA, int probB, int probAB) {
+        this(new int[] { probA, probB }, probAB);
+    }
+    
+    private Propagation(int layers, int[] table, boolean weighted) {
+        this.layers = layers;
+        this.table = table;
+        this.weighted = weighted;
+    }
+    
+    /**
+     * Parses a matrix given row by row, rows separated by <code>;</code> and entries by
+     * <code>,</code>, e.g. <code>30,80;80,30</code>.
+     */
+    public static Propagation parse(String spec) {
+        String[] rows = spec.split(";");
+        int[][] matrix = new int[rows.length][];
+        
+        for (int s = 0; s < rows.length; ++s) {
+            String[] entries = rows[s].split(",");
+            matrix[s] = new int[entries.length];
+            
+            for (int t = 0; t < entries.length; ++t)
+                matrix[s][t] = Integer.parseInt(entries[t].trim());
+        }
+        
+        return new Propagation(matrix);
+    }
+    
+    /** copy that does or does not take edge weights into account */
+    public Propagation weighted(boolean weighted) {
+        return new Propagation(layers, table, weighted);
+    }
+    
+    public boolean isWeighted() {
+        return weighted;
+    }
+    
+    public int getLayerCount() {
+        return layers;
+    }
+    
+    public int getIntra(int layer) {
+        return table[layer * layers + layer];
+    }
+    
+    /** probability from layer 0 to layer 1, i.e. PROB_AB in the two layer settings */
+    public int getInter() {
+        return layers > 1 ? table[1] : 0;
+    }
+    
+    /** probability of a failure crossing from a node in sourceLayer to one in targetLayer */
+    public int get(int sourceLayer, int targetLayer) {
+        return table[sourceLayer * layers + targetLayer];
+    }
+    
+    /** copy with a different probability within one layer */
+    public Propagation withIntra(int layer, int prob) {
+        int[] t = table.clone();
+        t[layer * layers + layer] = prob;
+        
+        return new Propagation(layers, t, weighted);
+    }
+    
+    /** copy with the same probability between every pair of different layers */
+    public Propagation withInter(int prob) {
+        int[] t = table.clone();
+        
+        for (int s = 0; s < layers; ++s) {
+            for (int u = 0; u < layers; ++u) {
+                if (s != u)
+                    t[s * layers + u] = prob;
+            }
+        }
+        
+        return new Propagation(layers, t, weighted);
+    }
+    
+    /**
+     * @return how many of the 100 possible draws fail the target across an edge of the given
+     *         weight, between 0 and 100; the weight only counts if this propagation is weighted
+     */
+    public int hits(int sourceLayer, int targetLayer, int weight) {
+        int hits = Math.max(0, Math.min(100, get(sourceLayer, targetLayer) + 1));
+        
+        if (!weighted || weight == 1)
+            return hits;
+        if (weight <= 0)
+            return 0;
+        
+        return (int) Math.round(100 * (1 - Math.pow(1 - hits / 100.0, weight)));
+    }
+    
+    /**
+     * Hits per adjacency slot of the graph, i.e. <code>thresholds[k]</code> for the edge from the
+     * row's node to <code>targets[k]</code>; a draw from [0, 100) below it fails the target.
+     */
+    int[] thresholds(CascadeGraph graph) {
+        int[] thresholds = new int[graph.offsets.get(graph.nodeCount)];
+        
+        for (int v = 0; v < graph.nodeCount; ++v) {
+            int source = graph.nodeLayer.get(v);
+            
+            for (int k = graph.offsets.get(v), end = graph.offsets.get(v + 1); k < end; ++k)
+                thresholds[k] = hits(source, graph.nodeLayer.get(graph.targets.get(k)), graph.edgeWeight.get(graph.edges.get(k)));
+        }
+        
+        return thresholds;
+    }
+}
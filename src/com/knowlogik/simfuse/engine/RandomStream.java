@@ -0,0 +1,69 @@
+package com.knowlogik.simfuse.engine;
+
+/**
+ * Small, allocation free SplitMix64 generator.
+ * 
+ * The whole generator state is one <code>long</code>, so a stream can be saved, restored and keyed
+ * deterministically. Each trial gets its own stream from {@link #trialSeed(long, long)}, which makes
+ * a trial's cascade depend only on the master seed and the trial number, never on which thread ran
+ * it or in what order.
+ */
+public final class RandomStream {
+    
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    
+    private long state;
+    
+    public RandomStream(long seed) {
+        this.state = seed;
+    }
+    
+    /**
+     * @return starting state for a trial's stream under a master seed
+     */
+    public static long trialSeed(long masterSeed, long trial) {
+        return mix64(mix64(masterSeed) + GOLDEN_GAMMA * (trial + 1));
+    }
+    
+    /** current state; feeding it back to {@link #setState(long)} resumes the stream exactly */
+    public long getState() {
+        return state;
+    }
+    
+    public void setState(long state) {
+        this.state = state;
+    }
+    
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+    
+    /**
+     * @return uniform int in [0, bound), without modulo bias
+     */
+    public int nextInt(int bound) {
+        int u = (int) (nextLong() >>> 33);
+        int r;
+        
+        while (u - (r = u % bound) + bound - 1 < 0)
+            u = (int) (nextLong() >>> 33);
+        
+        return r;
+    }
+    
+    /** uniform double in [0, 1) */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+    
+    /** new independent stream; advances this one */
+    public RandomStream split() {
+        return new RandomStream(nextLong());
+    }
+    
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
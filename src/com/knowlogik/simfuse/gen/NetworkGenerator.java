@@ -0,0 +1,250 @@
+package com.knowlogik.simfuse.gen;
+
+import java.io.IOException;
+
+import com.knowlogik.simfuse.engine.RandomStream;
+import com.knowlogik.simfuse.io.GraphMLLoader;
+import com.knowlogik.simfuse.io.GraphSource;
+
+/**
+ * Seeded generator for the four coupled A/B network families of the bundled data files, at any
+ * size, as a {@link GraphSource}: edges are produced on the fly and replayed from the seed, so
+ * nothing proportional to the graph is ever held.
+ * 
+ * <ul>
+ * <li><b>erdos</b> layers are G(n, p) with the given mean degree, drawn by geometric skipping over
+ * the node pairs (Batagelj-Brandes), O(n + m)</li>
+ * <li><b>scale</b> layers are Chung-Lu graphs whose expected degrees follow a power law with exponent
+ * gamma, drawn in O(n + m) with Miller-Hagberg skipping; expected degrees fall with the node
+ * index, so A.v1 and B.v1 are the hubs</li>
+ * <li><b>rand</b> coupling adds about <code>coupling * n</code> A-B edges between uniformly chosen
+ * nodes, <b>pref</b> coupling the same number between nodes chosen in proportion to their expected
+ * degree (identical to rand for erdos layers, whose expected degrees are all equal)</li>
+ * <li>the <b>all</b> variants instead give every node one A-B edge to a partner chosen uniformly or
+ * preferentially, so each node ends up coupled</li>
+ * </ul>
+ */
+public class NetworkGenerator implements GraphSource {
+    
+    private final int nodeCount;
+    private final boolean scaleFree;
+    private final boolean preferential;
+    private final boolean all;
+    
+    private double meanDegree = 10;
+    private double gamma = 2.5;
+    private double coupling = 0.25;
+    private long seed = System.nanoTime();
+    
+    private Layer layerA;
+    private Layer layerB;
+    
+    /**
+     * @param nodes
+     *            total over both layers; A gets the odd node
+     */
+    public NetworkGenerator(int nodes, boolean scaleFree, boolean preferential, boolean all) {
+        this.nodeCount = nodes;
+        this.scaleFree = scaleFree;
+        this.preferential = preferential;
+        this.all = all;
+    }
+    
+    /**
+     * @param family
+     *            <code>erdos_rand</code>, <code>erdos_randall</code>, <code>erdos_pref</code>,
+     *            <code>erdos_prefall</code> or the same with <code>scale_</code>
+     */
+    public static NetworkGenerator forFamily(String family, int nodes) {
+        String[] parts = family.split("_");
+        
+        if (parts.length != 2 || !(parts[0].equals("erdos") || parts[0].equals("scale")) || !parts[1].matches("(rand|pref)(all)?"))
+            throw new IllegalArgumentException("unknown network family '" + family + "'");
+        
+        return new NetworkGenerator(nodes, parts[0].equals("scale"), parts[1].startsWith("pref"), parts[1].endsWith("all"));
+    }
+    
+    /** mean intra-layer degree */
+    public void setMeanDegree(double meanDegree) {
+        this.meanDegree = meanDegree;
+        this.layerA = null;
+    }
+    
+    /** power law exponent of scale free layers, above 2 */
+    public void setGamma(double gamma) {
+        if (gamma <= 2)
+            throw new IllegalArgumentException("gamma must be above 2");
+        
+        this.gamma = gamma;
+        this.layerA = null;
+    }
+    
+    /** expected A-B edges per node, when not coupling all nodes */
+    public void setCoupling(double coupling) {
+        this.coupling = coupling;
+    }
+    
+    public long getSeed() {
+        return seed;
+    }
+    
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    @Override
+    public String[] getNodeLayerNames() {
+        return GraphMLLoader.NODE_LAYERS.clone();
+    }
+    
+    @Override
+    public String[] getEdgeLayerNames() {
+        return GraphMLLoader.EDGE_LAYERS.clone();
+    }
+    
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    /**
+     * Edges to expect from the mean degree and the coupling; a drawn graph varies around it and
+     * falls a little short where Chung-Lu probabilities are capped at 1. Cheap, so writers can check
+     * a size limit before generating anything.
+     */
+    public long getExpectedEdgeCount() {
+        double intra = meanDegree * nodeCount / 2;
+        double inter = all ? nodeCount : coupling * nodeCount;
+        
+        return (long) Math.ceil(intra + inter);
+    }
+    
+    private int sizeA() {
+        return nodeCount - nodeCount / 2;
+    }
+    
+    @Override
+    public String getNodeName(int node) {
+        int a = sizeA();
+        return node < a ? "A.v" + (node + 1) : "B.v" + (node - a + 1);
+    }
+    
+    @Override
+    public int getNodeLayer(int node) {
+        return node < sizeA() ? 0 : 1;
+    }
+    
+    @Override
+    public void edges(EdgeVisitor visitor) throws IOException {
+        if (layerA == null) {
+            layerA = new Layer(sizeA());
+            layerB = new Layer(nodeCount / 2);
+        }
+        
+        RandomStream random = new RandomStream(seed);
+        int a = layerA.size;
+        
+        chungLu(layerA, layerA, 1 / layerA.sum, false, 0, 0, 0, visitor, random);
+        chungLu(layerB, layerB, 1 / layerB.sum, false, a, a, 1, visitor, random);
+        
+        if (layerA.size == 0 || layerB.size == 0)
+            return;
+        
+        if (all) {
+            for (int u = 0; u < layerA.size; ++u)
+                visitor.edge(u, a + partner(layerB, random), 2, 1);
+            for (int v = 0; v < layerB.size; ++v)
+                visitor.edge(partner(layerA, random), a + v, 2, 1);
+        }
+        else if (preferential) {
+            chungLu(layerA, layerB, coupling * nodeCount / (layerA.sum * layerB.sum), true, 0, a, 2, visitor, random);
+        }
+        else {
+            Layer flatA = new Layer(layerA.size, 1);
+            Layer flatB = new Layer(layerB.size, 1);
+            chungLu(flatA, flatB, coupling * nodeCount / ((double) flatA.size * flatB.size), true, 0, a, 2, visitor, random);
+        }
+    }
+    
+    /**
+     * Miller-Hagberg: edge (u, v) appears with probability min(1, factor * w(u) * w(v)); weights
+     * fall with the index, so runs of unlikely candidates are skipped geometrically. Within one
+     * layer only v > u is considered.
+     */
+    private static void chungLu(Layer rows, Layer cols, double factor, boolean bipartite, int rowBase, int colBase, int layer, EdgeVisitor visitor,
+            RandomStream random) throws IOException {
+        for (int u = 0; u < rows.size; ++u) {
+            double wu = factor * rows.weight(u);
+            int v = bipartite ? 0 : u + 1;
+            double p = v < cols.size ? Math.min(1, wu * cols.weight(v)) : 0;
+            
+            while (v < cols.size && p > 0) {
+                if (p < 1) {
+                    double skip = Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+                    
+                    if (v + skip >= cols.size)
+                        break;
+                    v += (int) skip;
+                }
+                
+                double q = Math.min(1, wu * cols.weight(v));
+                if (random.nextDouble() * p < q)
+                    visitor.edge(rowBase + u, colBase + v, layer, 1);
+                
+                p = q;
+                v++;
+            }
+        }
+    }
+    
+    /**
+     * node of a layer, uniform or in proportion to its expected degree
+     */
+    private int partner(Layer layer, RandomStream random) {
+        if (!preferential || !scaleFree)
+            return random.nextInt(layer.size);
+        
+        // inverse of the continuous (x + 1)^-alpha distribution on [0, size)
+        double beta = 1 - layer.alpha;
+        double x = Math.pow(1 + random.nextDouble() * (Math.pow(layer.size + 1, beta) - 1), 1 / beta) - 1;
+        
+        return Math.min(layer.size - 1, (int) x);
+    }
+    
+    /**
+     * expected degrees of one layer
+     */
+    private class Layer {
+        
+        final int size;
+        final double alpha;
+        final double scale;
+        final double sum;
+        
+        Layer(int size) {
+            this.size = size;
+            this.alpha = scaleFree ? 1 / (gamma - 1) : 0;
+            
+            double s = 0;
+            if (scaleFree) {
+                for (int i = 0; i < size; ++i)
+                    s += Math.pow(i + 1, -alpha);
+            }
+            
+            this.scale = scaleFree && size > 0 ? meanDegree * size / s : meanDegree;
+            this.sum = meanDegree * size;
+        }
+        
+        /** flat layer of constant weight */
+        Layer(int size, double weight) {
+            this.size = size;
+            this.alpha = 0;
+            this.scale = weight;
+            this.sum = weight * size;
+        }
+        
+        double weight(int i) {
+            return alpha == 0 ? scale : scale * Math.pow(i + 1, -alpha);
+        }
+    }
+}
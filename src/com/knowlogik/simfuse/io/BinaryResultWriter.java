@@ -0,0 +1,76 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Compact little endian records.
+ * 
+ * <pre>
+ * header  magic "SIMFUSER", int version, int metric count, per metric int length + UTF-8 name
+ * record  long trial, int tick, double per metric
+ * </pre>
+ */
+public class BinaryResultWriter implements ResultWriter {
+    
+    private static final byte[] MAGIC = "SIMFUSER".getBytes(Charset.forName("US-ASCII"));
+    private static final int VERSION = 1;
+    
+    private final OutputStream out;
+    private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    
+    public BinaryResultWriter(OutputStream out) {
+        this.out = out;
+    }
+    
+    @Override
+    public void header(String[] names) throws IOException {
+        buf.put(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(names.length);
+        
+        for (String name : names) {
+            byte[] bytes = name.getBytes(Charset.forName("UTF-8"));
+            ensure(4 + bytes.length);
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+    }
+    
+    @Override
+    public void record(long trial, int tick, double[] values) throws IOException {
+        ensure(12 + 8 * values.length);
+        
+        buf.putLong(trial);
+        buf.putInt(tick);
+        for (double v : values)
+            buf.putDouble(v);
+    }
+    
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() < bytes)
+            drain();
+        if (buf.remaining() < bytes)
+            throw new IOException("record of " + bytes + " bytes does not fit the output buffer");
+    }
+    
+    private void drain() throws IOException {
+        out.write(buf.array(), 0, buf.position());
+        buf.clear();
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        drain();
+        out.close();
+    }
+}
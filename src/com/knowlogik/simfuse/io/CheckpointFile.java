@@ -0,0 +1,102 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import com.knowlogik.simfuse.engine.CascadeCheckpoint;
+
+/**
+ * {@link CascadeCheckpoint}s on disk.
+ * 
+ * <pre>
+ * header  magic "SIMFUSEC", int version, int nodes, int edges, int tick, int failed,
+ *         int expanded, long random state
+ * body    int per failed node, in failure order
+ * </pre>
+ * 
+ * Little endian, like the other binary formats.
+ */
+public final class CheckpointFile {
+    
+    private static final byte[] MAGIC = "SIMFUSEC".getBytes(Charset.forName("US-ASCII"));
+    private static final int VERSION = 1;
+    
+    private CheckpointFile() {
+    }
+    
+    public static void write(CascadeCheckpoint checkpoint, String file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            
+            buf.put(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(checkpoint.getNodeCount());
+            buf.putInt(checkpoint.getEdgeCount());
+            buf.putInt(checkpoint.getTick());
+            buf.putInt(checkpoint.getFailedCount());
+            buf.putInt(checkpoint.getExpandedCount());
+            buf.putLong(checkpoint.getRandomState());
+            
+            for (int i = 0; i < checkpoint.getFailedCount(); ++i) {
+                if (buf.remaining() < 4) {
+                    out.write(buf.array(), 0, buf.position());
+                    buf.clear();
+                }
+                
+                buf.putInt(checkpoint.getFailed(i));
+            }
+            
+            out.write(buf.array(), 0, buf.position());
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    public static CascadeCheckpoint read(String file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(file))).order(ByteOrder.LITTLE_ENDIAN);
+        
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(file + " is not a cascade checkpoint");
+            
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException(file + ": unsupported checkpoint version " + version);
+            
+            int nodes = buf.getInt();
+            int edges = buf.getInt();
+            int tick = buf.getInt();
+            int failedCount = buf.getInt();
+            int expanded = buf.getInt();
+            long randomState = buf.getLong();
+            
+            if (failedCount < 0 || (long) failedCount * 4 != buf.remaining())
+                throw new IOException(file + ": checkpoint is truncated or corrupt");
+            
+            int[] failed = new int[failedCount];
+            buf.asIntBuffer().get(failed);
+            
+            return new CascadeCheckpoint(nodes, edges, tick, failed, expanded, randomState);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException(file + ": checkpoint is truncated", e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+}
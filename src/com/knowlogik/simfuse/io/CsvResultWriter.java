@@ -0,0 +1,60 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DecimalFormat;
+
+/**
+ * Delimited text: a header line, then <code>trial, tick, metrics...</code> per record.
+ */
+public class CsvResultWriter implements ResultWriter {
+    
+    private final Writer out;
+    private final char separator;
+    private final DecimalFormat decFmt = new DecimalFormat("0.####");
+    private final StringBuilder sb = new StringBuilder();
+    
+    /**
+     * @param separator
+     *            ',' for CSV, '\t' for the tab separated console format
+     */
+    public CsvResultWriter(OutputStream out, char separator) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 1 << 16);
+        this.separator = separator;
+    }
+    
+    @Override
+    public void header(String[] names) throws IOException {
+        sb.setLength(0);
+        sb.append("trial").append(separator).append("tick");
+        for (String name : names)
+            sb.append(separator).append(name);
+        sb.append('\n');
+        
+        out.write(sb.toString());
+    }
+    
+    @Override
+    public void record(long trial, int tick, double[] values) throws IOException {
+        sb.setLength(0);
+        sb.append(trial).append(separator).append(tick);
+        for (double v : values)
+            sb.append(separator).append(decFmt.format(v));
+        sb.append('\n');
+        
+        out.write(sb.toString());
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,237 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.GraphBuilder;
+
+/**
+ * Single pass StAX reader that turns GraphML straight into a {@link CascadeGraph}.
+ * 
+ * Only the <code>name</code> and <code>netID</code> node attributes and the <code>weight</code> and
+ * <code>netID</code> edge attributes are kept; everything else is skipped without being
+ * materialized. GraphML node ids are mapped to engine indices (document order) through a
+ * {@link StringIntMap}, so nodes must appear before the edges that use them.
+ * 
+ * By default every distinct node and edge netID becomes a layer, coded in order of first
+ * appearance, so networks with any number of layers load as they are. A loader given fixed layer
+ * names rejects anything else instead.
+ * 
+ * A direct loader puts the finished graph in native memory rather than on the heap, see
+ * {@link GraphBuilder#build(boolean)}.
+ */
+public class GraphMLLoader {
+    
+    // the classic two layer netIDs
+    public static final String[] NODE_LAYERS = { "A", "B" };
+    public static final String[] EDGE_LAYERS = { "A", "B", "AB" };
+    
+    private static final int ATTR_NAME = 0;
+    private static final int ATTR_NETID = 1;
+    private static final int ATTR_WEIGHT = 2;
+    
+    private final String[] nodeLayers;
+    private final String[] edgeLayers;
+    private boolean direct = false;
+    
+    /** layers as found in the input */
+    public GraphMLLoader() {
+        this.nodeLayers = null;
+        this.edgeLayers = null;
+    }
+    
+    /** only the given layers, in this order */
+    public GraphMLLoader(String[] nodeLayers, String[] edgeLayers) {
+        this.nodeLayers = nodeLayers.clone();
+        this.edgeLayers = edgeLayers.clone();
+    }
+    
+    /** build graphs in direct buffers */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+    
+    public CascadeGraph load(String inFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(inFile), 1 << 16);
+        
+        try {
+            return load(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    public CascadeGraph load(InputStream in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        
+        try {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            
+            try {
+                return parse(r);
+            }
+            finally {
+                r.close();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IOException("Error parsing GraphML: " + e.getMessage(), e);
+        }
+    }
+    
+    private CascadeGraph parse(XMLStreamReader r) throws XMLStreamException, IOException {
+        GraphBuilder builder = nodeLayers != null ? new GraphBuilder(nodeLayers, edgeLayers) : new GraphBuilder();
+        
+        // GraphML key id -> attribute we care about, kept apart for nodes and edges
+        StringIntMap nodeKeys = new StringIntMap(16);
+        StringIntMap edgeKeys = new StringIntMap(16);
+        StringIntMap ids = new StringIntMap(1 << 12);
+        
+        boolean inNode = false;
+        boolean inEdge = false;
+        String id = null;
+        String source = null;
+        String target = null;
+        String name = null;
+        String netID = null;
+        int weight = 1;
+        
+        while (r.hasNext()) {
+            int event = r.next();
+            
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String tag = r.getLocalName();
+                
+                if (tag.equals("data")) {
+                    String key = r.getAttributeValue(null, "key");
+                    
+                    if (key == null && (inNode || inEdge))
+                        throw error(r, "data without key");
+                    
+                    int attr = inNode ? nodeKeys.get(key) : inEdge ? edgeKeys.get(key) : -1;
+                    
+                    if (attr == ATTR_NAME) {
+                        name = r.getElementText().trim();
+                    }
+                    else if (attr == ATTR_NETID) {
+                        netID = r.getElementText().trim();
+                    }
+                    else if (attr == ATTR_WEIGHT) {
+                        String text = r.getElementText().trim();
+                        
+                        try {
+                            weight = Integer.parseInt(text);
+                        }
+                        catch (NumberFormatException e) {
+                            throw error(r, "bad edge weight '" + text + "'");
+                        }
+                    }
+                }
+                else if (tag.equals("node")) {
+                    inNode = true;
+                    id = r.getAttributeValue(null, "id");
+                    name = null;
+                    netID = null;
+                }
+                else if (tag.equals("edge")) {
+                    inEdge = true;
+                    source = r.getAttributeValue(null, "source");
+                    target = r.getAttributeValue(null, "target");
+                    netID = null;
+                    weight = 1;
+                }
+                else if (tag.equals("key")) {
+                    int attr = attribute(r.getAttributeValue(null, "attr.name"));
+                    String domain = r.getAttributeValue(null, "for");
+                    String key = r.getAttributeValue(null, "id");
+                    
+                    if (attr >= 0 && key != null) {
+                        if (domain == null || domain.equals("node") || domain.equals("all"))
+                            nodeKeys.put(key, attr);
+                        if (domain == null || domain.equals("edge") || domain.equals("all"))
+                            edgeKeys.put(key, attr);
+                    }
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                String tag = r.getLocalName();
+                
+                if (tag.equals("node")) {
+                    int layer = netID != null ? nodeLayer(builder, netID, r) : -1;
+                    
+                    if (id == null)
+                        throw error(r, "node without id");
+                    if (layer < 0)
+                        throw error(r, "unknown node netID '" + netID + "'");
+                    
+                    int node = builder.addNode(name != null ? name : id, layer);
+                    
+                    if (ids.put(id, node) >= 0)
+                        throw error(r, "duplicate node id '" + id + "'");
+                    
+                    inNode = false;
+                }
+                else if (tag.equals("edge")) {
+                    int layer = netID != null ? edgeLayer(builder, netID, r) : -1;
+                    int s = source != null ? ids.get(source) : -1;
+                    int t = target != null ? ids.get(target) : -1;
+                    
+                    if (s < 0 || t < 0)
+                        throw error(r, "edge references unknown node '" + (s < 0 ? source : target) + "'");
+                    if (layer < 0)
+                        throw error(r, "unknown edge netID '" + netID + "'");
+                    
+                    builder.addEdge(s, t, layer, weight);
+                    
+                    inEdge = false;
+                }
+            }
+        }
+        
+        return builder.build(direct);
+    }
+    
+    private int nodeLayer(GraphBuilder builder, String netID, XMLStreamReader r) throws IOException {
+        try {
+            return nodeLayers != null ? builder.getNodeLayer(netID) : builder.addNodeLayer(netID);
+        }
+        catch (IllegalArgumentException e) {
+            throw error(r, e.getMessage());
+        }
+    }
+    
+    private int edgeLayer(GraphBuilder builder, String netID, XMLStreamReader r) throws IOException {
+        try {
+            return edgeLayers != null ? builder.getEdgeLayer(netID) : builder.addEdgeLayer(netID);
+        }
+        catch (IllegalArgumentException e) {
+            throw error(r, e.getMessage());
+        }
+    }
+    
+    private static int attribute(String attrName) {
+        if ("name".equals(attrName))
+            return ATTR_NAME;
+        if ("netID".equals(attrName))
+            return ATTR_NETID;
+        if ("weight".equals(attrName))
+            return ATTR_WEIGHT;
+        
+        return -1;
+    }
+    
+    private static IOException error(XMLStreamReader r, String message) {
+        return new IOException("GraphML line " + r.getLocation().getLineNumber() + ": " + message);
+    }
+}
@@ -0,0 +1,85 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streams a {@link GraphSource} out as GraphML in the layout of the bundled data files (name and
+ * netID per node, weight and netID per edge, ids counting from 1). Nothing but the output buffer is
+ * held in memory.
+ */
+public class GraphMLWriter {
+    
+    public void write(GraphSource source, String outFile) throws IOException {
+        OutputStream out = new FileOutputStream(outFile);
+        
+        try {
+            write(source, out);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    public void write(GraphSource source, OutputStream out) throws IOException {
+        final Writer w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 1 << 16);
+        final String[] nodeLayers = source.getNodeLayerNames();
+        final String[] edgeLayers = source.getEdgeLayerNames();
+        
+        w.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        w.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+        w.write("\t<graph edgedefault=\"undirected\" id=\"network\">\n");
+        w.write("\t\t<key attr.name=\"name\" attr.type=\"string\" for=\"node\" id=\"name\"/>\n");
+        w.write("\t\t<key attr.name=\"netID\" attr.type=\"string\" for=\"node\" id=\"netID\"/>\n");
+        w.write("\t\t<key attr.name=\"weight\" attr.type=\"int\" for=\"edge\" id=\"weight\"/>\n");
+        w.write("\t\t<key attr.name=\"netID\" attr.type=\"string\" for=\"edge\" id=\"netID\"/>\n");
+        
+        for (int i = 0, n = source.getNodeCount(); i < n; ++i) {
+            w.write("\t\t<node id=\"");
+            w.write(Integer.toString(i + 1));
+            w.write("\">\n\t\t\t<data key=\"name\">");
+            w.write(escape(source.getNodeName(i)));
+            w.write("</data>\n\t\t\t<data key=\"netID\">");
+            w.write(escape(nodeLayers[source.getNodeLayer(i)]));
+            w.write("</data></node>\n");
+        }
+        
+        source.edges(new GraphSource.EdgeVisitor() {
+            
+            private long id = 0;
+            
+            @Override
+            public void edge(int source, int target, int layer, int weight) throws IOException {
+                w.write("\t\t<edge id=\"");
+                w.write(Long.toString(++id));
+                w.write("\" source=\"");
+                w.write(Integer.toString(source + 1));
+                w.write("\" target=\"");
+                w.write(Integer.toString(target + 1));
+                w.write("\">\n\t\t\t<data key=\"weight\">");
+                w.write(Integer.toString(weight));
+                w.write("</data>\n\t\t\t<data key=\"netID\">");
+                w.write(escape(edgeLayers[layer]));
+                w.write("</data></edge>\n");
+            }
+        });
+        
+        w.write("\t</graph>\n</graphml>\n");
+        w.flush();
+    }
+    
+    private static String escape(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            
+            if (c == '<' || c == '>' || c == '&' || c == '"')
+                return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+        
+        return s;
+    }
+}
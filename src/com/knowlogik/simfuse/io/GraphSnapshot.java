@@ -0,0 +1,497 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+
+/**
+ * Binary graph snapshot that opens by memory mapping instead of parsing.
+ * 
+ * <pre>
+ * header   64 bytes: magic "SIMFUSEG", version, nodes, edges, node layers, edge layers,
+ *                    name table length
+ * meta     layer names (int length + UTF-8) and per-layer node/edge counts
+ * sections offsets int[n+1], targets int[2m], edges int[2m], weights int[m],
+ *          name offsets int[n+1], node layers byte[n], edge layers byte[m], names byte[]
+ * </pre>
+ * 
+ * Everything is little endian and every section starts on an 8 byte boundary. Sections are mapped
+ * read-only one by one (so only a section, not the whole file, has to fit the 2 GB limit of a
+ * single mapping, which caps a snapshot at {@link #MAX_NODES} nodes and {@link #MAX_EDGES} edges)
+ * and handed to {@link CascadeGraph} as they are; processes that open the same file share its page
+ * cache. {@link #write(GraphSource, String)} builds a snapshot from a graph that is
+ * never loaded, such as a synthetic one.
+ */
+public final class GraphSnapshot {
+    
+    private static final byte[] MAGIC = "SIMFUSEG".getBytes(Charset.forName("US-ASCII"));
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /** most edges a snapshot holds: targets and edges take 8 bytes per edge each */
+    public static final int MAX_EDGES = Integer.MAX_VALUE / 8;
+    
+    /** most nodes a snapshot holds, for the int[n+1] offset sections */
+    public static final int MAX_NODES = Integer.MAX_VALUE / 4 - 1;
+    
+    private GraphSnapshot() {
+    }
+    
+    /**
+     * @return true if the file starts with the snapshot magic
+     */
+    public static boolean isSnapshot(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            return raf.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * @throws IOException
+     *             also, before the file is touched, if the graph is too large to be opened again
+     */
+    public static void write(CascadeGraph graph, String file) throws IOException {
+        checkSize(graph.getNodeCount(), graph.getEdgeCount());
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        
+        try {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            int n = graph.getNodeCount();
+            int m = graph.getEdgeCount();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(n);
+            header.putInt(m);
+            header.putInt(graph.getNodeLayerCount());
+            header.putInt(graph.getEdgeLayerCount());
+            header.putInt(0);
+            header.putLong(graph.getNameBuffer().limit());
+            header.clear();
+            writeFully(ch, header);
+            
+            ByteBuffer meta = ByteBuffer.allocate(metaSize(nodeLayerNames(graph), edgeLayerNames(graph))).order(ByteOrder.LITTLE_ENDIAN);
+            for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+                putString(meta, graph.getNodeLayerName(l));
+            for (int l = 0; l < graph.getEdgeLayerCount(); ++l)
+                putString(meta, graph.getEdgeLayerName(l));
+            for (int l = 0; l < graph.getNodeLayerCount(); ++l)
+                meta.putInt(graph.getNodeLayerSize(l));
+            for (int l = 0; l < graph.getEdgeLayerCount(); ++l)
+                meta.putInt(graph.getEdgeLayerSize(l));
+            meta.clear();
+            writeFully(ch, meta);
+            
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            writeInts(ch, buf, graph.getOffsetBuffer());
+            writeInts(ch, buf, graph.getTargetBuffer());
+            writeInts(ch, buf, graph.getEdgeBuffer());
+            writeInts(ch, buf, graph.getEdgeWeightBuffer());
+            writeInts(ch, buf, graph.getNameOffsetBuffer());
+            writeBytes(ch, buf, graph.getNodeLayerBuffer());
+            writeBytes(ch, buf, graph.getEdgeLayerBuffer());
+            writeBytes(ch, buf, graph.getNameBuffer());
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Writes a graph that is only replayed, never held: the first pass over the edges counts
+     * degrees straight into the mapped offsets section, the second pass drops every edge into its
+     * CSR slots. Memory use stays constant apart from the page cache.
+     * 
+     * @throws IOException
+     *             also if the two passes disagree, or as soon as the graph turns out to be too large
+     *             to be opened again
+     */
+    public static void write(GraphSource source, String file) throws IOException {
+        checkSize(source.getNodeCount(), 0);
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        
+        try {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            final int n = source.getNodeCount();
+            String[] nodeLayerNames = source.getNodeLayerNames();
+            String[] edgeLayerNames = source.getEdgeLayerNames();
+            
+            long offsetsAt = HEADER_SIZE + metaSize(nodeLayerNames, edgeLayerNames);
+            raf.setLength(offsetsAt + align((n + 1L) * 4));
+            final MappedRegion offsets = new MappedRegion(ch, offsetsAt, (n + 1L) * 4);
+            
+            // pass 1: degrees and edge layer sizes
+            final int[] edgeLayerCount = new int[edgeLayerNames.length];
+            final long[] m = { 0 };
+            
+            source.edges(new GraphSource.EdgeVisitor() {
+                
+                @Override
+                public void edge(int s, int t, int layer, int weight) throws IOException {
+                    offsets.putInt(s, offsets.getInt(s) + 1);
+                    offsets.putInt(t, offsets.getInt(t) + 1);
+                    edgeLayerCount[layer]++;
+                    
+                    if (++m[0] > MAX_EDGES)
+                        throw new IOException("more than " + MAX_EDGES + " edges, too many for a snapshot");
+                }
+            });
+            
+            int sum = 0;
+            for (int i = 0; i <= n; ++i) {
+                int degree = i < n ? offsets.getInt(i) : 0;
+                offsets.putInt(i, sum);
+                sum += degree;
+            }
+            
+            // node names and layers
+            long nameLength = 0;
+            int[] nodeLayerCount = new int[nodeLayerNames.length];
+            for (int i = 0; i < n; ++i) {
+                nameLength += source.getNodeName(i).getBytes(UTF8).length;
+                nodeLayerCount[source.getNodeLayer(i)]++;
+            }
+            
+            if (nameLength > Integer.MAX_VALUE)
+                throw new IOException("node names too long for a snapshot");
+            
+            final int edgeCount = (int) m[0];
+            long targetsAt = offsetsAt + align((n + 1L) * 4);
+            long edgesAt = targetsAt + align(8L * edgeCount);
+            long weightsAt = edgesAt + align(8L * edgeCount);
+            long nameOffsetsAt = weightsAt + align(4L * edgeCount);
+            long nodeLayerAt = nameOffsetsAt + align((n + 1L) * 4);
+            long edgeLayerAt = nodeLayerAt + align(n);
+            long namesAt = edgeLayerAt + align(edgeCount);
+            raf.setLength(namesAt + align(nameLength));
+            
+            final MappedRegion targets = new MappedRegion(ch, targetsAt, 8L * edgeCount);
+            final MappedRegion edges = new MappedRegion(ch, edgesAt, 8L * edgeCount);
+            final MappedRegion weights = new MappedRegion(ch, weightsAt, 4L * edgeCount);
+            final MappedRegion edgeLayer = new MappedRegion(ch, edgeLayerAt, edgeCount);
+            
+            // pass 2: offsets[u] serves as u's fill cursor and ends up one row ahead
+            final int[] e = { 0 };
+            
+            source.edges(new GraphSource.EdgeVisitor() {
+                
+                @Override
+                public void edge(int s, int t, int layer, int weight) throws IOException {
+                    if (e[0] == edgeCount)
+                        throw new IOException("graph source replayed more edges than on the first pass");
+                    
+                    int slot = offsets.getInt(s);
+                    offsets.putInt(s, slot + 1);
+                    targets.putInt(slot, t);
+                    edges.putInt(slot, e[0]);
+                    
+                    slot = offsets.getInt(t);
+                    offsets.putInt(t, slot + 1);
+                    targets.putInt(slot, s);
+                    edges.putInt(slot, e[0]);
+                    
+                    weights.putInt(e[0], weight);
+                    edgeLayer.put(e[0], (byte) layer);
+                    e[0]++;
+                }
+            });
+            
+            if (e[0] != edgeCount)
+                throw new IOException("graph source replayed fewer edges than on the first pass");
+            
+            for (int i = n; i > 0; --i)
+                offsets.putInt(i, offsets.getInt(i - 1));
+            offsets.putInt(0, 0);
+            
+            MappedRegion nameOffsets = new MappedRegion(ch, nameOffsetsAt, (n + 1L) * 4);
+            MappedRegion nodeLayer = new MappedRegion(ch, nodeLayerAt, n);
+            MappedRegion names = new MappedRegion(ch, namesAt, nameLength);
+            
+            int pos = 0;
+            for (int i = 0; i < n; ++i) {
+                byte[] bytes = source.getNodeName(i).getBytes(UTF8);
+                
+                nameOffsets.putInt(i, pos);
+                for (int b = 0; b < bytes.length; ++b)
+                    names.put(pos + b, bytes[b]);
+                pos += bytes.length;
+                
+                nodeLayer.put(i, (byte) source.getNodeLayer(i));
+            }
+            nameOffsets.putInt(n, pos);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(n);
+            header.putInt(edgeCount);
+            header.putInt(nodeLayerNames.length);
+            header.putInt(edgeLayerNames.length);
+            header.putInt(0);
+            header.putLong(nameLength);
+            header.clear();
+            
+            ByteBuffer meta = ByteBuffer.allocate((int) (offsetsAt - HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            for (String name : nodeLayerNames)
+                putString(meta, name);
+            for (String name : edgeLayerNames)
+                putString(meta, name);
+            for (int count : nodeLayerCount)
+                meta.putInt(count);
+            for (int count : edgeLayerCount)
+                meta.putInt(count);
+            meta.clear();
+            
+            ch.position(0);
+            writeFully(ch, header);
+            writeFully(ch, meta);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    public static CascadeGraph open(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, header, 0);
+            
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(file + " is not a graph snapshot");
+            
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + ": unsupported snapshot version " + version);
+            
+            int n = header.getInt();
+            int m = header.getInt();
+            int nodeLayers = header.getInt();
+            int edgeLayers = header.getInt();
+            header.getInt();
+            long nameLength = header.getLong();
+            
+            // meta only holds layer names and counts; one bounded read covers it
+            ByteBuffer meta = ByteBuffer.allocate((int) Math.min(ch.size() - HEADER_SIZE, 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, meta, HEADER_SIZE);
+            
+            String[] nodeLayerNames = new String[nodeLayers];
+            String[] edgeLayerNames = new String[edgeLayers];
+            int[] nodeLayerCount = new int[nodeLayers];
+            int[] edgeLayerCount = new int[edgeLayers];
+            
+            for (int l = 0; l < nodeLayers; ++l)
+                nodeLayerNames[l] = getString(meta);
+            for (int l = 0; l < edgeLayers; ++l)
+                edgeLayerNames[l] = getString(meta);
+            for (int l = 0; l < nodeLayers; ++l)
+                nodeLayerCount[l] = meta.getInt();
+            for (int l = 0; l < edgeLayers; ++l)
+                edgeLayerCount[l] = meta.getInt();
+            
+            long[] at = { HEADER_SIZE + align(meta.position()) };
+            IntBuffer offsets = mapInts(ch, at, n + 1L);
+            IntBuffer targets = mapInts(ch, at, 2L * m);
+            IntBuffer edges = mapInts(ch, at, 2L * m);
+            IntBuffer weights = mapInts(ch, at, m);
+            IntBuffer nameOffsets = mapInts(ch, at, n + 1L);
+            ByteBuffer nodeLayer = mapBytes(ch, at, n);
+            ByteBuffer edgeLayer = mapBytes(ch, at, m);
+            ByteBuffer names = mapBytes(ch, at, nameLength);
+            
+            return new CascadeGraph(offsets, targets, edges, nodeLayer, edgeLayer, weights, nameOffsets, names, nodeLayerNames, edgeLayerNames, nodeLayerCount,
+                    edgeLayerCount);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException(file + ": truncated snapshot header");
+        }
+        finally {
+            // mappings stay valid after the channel is closed
+            raf.close();
+        }
+    }
+    
+    private static IntBuffer mapInts(FileChannel ch, long[] at, long count) throws IOException {
+        return map(ch, at, count * 4).asIntBuffer();
+    }
+    
+    private static ByteBuffer mapBytes(FileChannel ch, long[] at, long count) throws IOException {
+        return map(ch, at, count);
+    }
+    
+    private static ByteBuffer map(FileChannel ch, long[] at, long length) throws IOException {
+        if (at[0] + length > ch.size())
+            throw new IOException("truncated snapshot");
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("snapshot section of " + length + " bytes is too large to map");
+        
+        ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, at[0], length).order(ByteOrder.LITTLE_ENDIAN);
+        at[0] += align(length);
+        
+        return b;
+    }
+    
+    /** refuses a graph whose offsets, targets or edges section would not map as one buffer */
+    private static void checkSize(int nodes, long edges) throws IOException {
+        if (nodes > MAX_NODES)
+            throw new IOException(nodes + " nodes, a snapshot holds at most " + MAX_NODES);
+        if (edges > MAX_EDGES)
+            throw new IOException(edges + " edges, a snapshot holds at most " + MAX_EDGES);
+    }
+    
+    private static long align(long length) {
+        return (length + 7) & ~7L;
+    }
+    
+    private static int metaSize(String[] nodeLayerNames, String[] edgeLayerNames) {
+        int size = 0;
+        
+        for (String name : nodeLayerNames)
+            size += 4 + name.getBytes(UTF8).length;
+        for (String name : edgeLayerNames)
+            size += 4 + name.getBytes(UTF8).length;
+        size += 4 * (nodeLayerNames.length + edgeLayerNames.length);
+        
+        return (int) align(size);
+    }
+    
+    private static String[] nodeLayerNames(CascadeGraph graph) {
+        String[] names = new String[graph.getNodeLayerCount()];
+        for (int l = 0; l < names.length; ++l)
+            names[l] = graph.getNodeLayerName(l);
+        
+        return names;
+    }
+    
+    private static String[] edgeLayerNames(CascadeGraph graph) {
+        String[] names = new String[graph.getEdgeLayerCount()];
+        for (int l = 0; l < names.length; ++l)
+            names[l] = graph.getEdgeLayerName(l);
+        
+        return names;
+    }
+    
+    private static void putString(ByteBuffer b, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        b.putInt(bytes.length);
+        b.put(bytes);
+    }
+    
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, UTF8);
+    }
+    
+    private static void writeInts(FileChannel ch, ByteBuffer buf, IntBuffer src) throws IOException {
+        long written = 0;
+        
+        for (int i = 0, n = src.limit(); i < n;) {
+            buf.clear();
+            for (; i < n && buf.remaining() >= 4; ++i)
+                buf.putInt(src.get(i));
+            buf.flip();
+            written += buf.remaining();
+            writeFully(ch, buf);
+        }
+        
+        pad(ch, written);
+    }
+    
+    private static void writeBytes(FileChannel ch, ByteBuffer buf, ByteBuffer src) throws IOException {
+        long written = 0;
+        
+        for (int i = 0, n = src.limit(); i < n;) {
+            buf.clear();
+            for (; i < n && buf.hasRemaining(); ++i)
+                buf.put(src.get(i));
+            buf.flip();
+            written += buf.remaining();
+            writeFully(ch, buf);
+        }
+        
+        pad(ch, written);
+    }
+    
+    private static void pad(FileChannel ch, long written) throws IOException {
+        int pad = (int) (align(written) - written);
+        
+        if (pad > 0)
+            writeFully(ch, ByteBuffer.allocate(pad));
+    }
+    
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            ch.write(b);
+    }
+    
+    /**
+     * Writable mapping of a file range of any length, split into 256 MB windows.
+     */
+    private static final class MappedRegion {
+        
+        private static final int WINDOW_SHIFT = 28;
+        private static final int WINDOW_MASK = (1 << WINDOW_SHIFT) - 1;
+        
+        private final ByteBuffer[] windows;
+        
+        MappedRegion(FileChannel ch, long position, long length) throws IOException {
+            windows = new ByteBuffer[(int) ((length + WINDOW_MASK) >>> WINDOW_SHIFT)];
+            
+            for (int w = 0; w < windows.length; ++w) {
+                long start = (long) w << WINDOW_SHIFT;
+                windows[w] = ch.map(FileChannel.MapMode.READ_WRITE, position + start, Math.min(1L << WINDOW_SHIFT, length - start)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        
+        int getInt(long index) {
+            long b = index << 2;
+            return windows[(int) (b >>> WINDOW_SHIFT)].getInt((int) (b & WINDOW_MASK));
+        }
+        
+        void putInt(long index, int value) {
+            long b = index << 2;
+            windows[(int) (b >>> WINDOW_SHIFT)].putInt((int) (b & WINDOW_MASK), value);
+        }
+        
+        void put(long pos, byte value) {
+            windows[(int) (pos >>> WINDOW_SHIFT)].put((int) (pos & WINDOW_MASK), value);
+        }
+    }
+    
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int r = ch.read(b, pos + b.position());
+            if (r < 0)
+                break;
+        }
+        
+        b.flip();
+    }
+}
@@ -0,0 +1,34 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.IOException;
+
+/**
+ * A graph that is never held in memory, only replayed: nodes are answered by index and edges are
+ * pushed to a visitor, in the same order on every pass. Writers that need two passes (see
+ * {@link GraphSnapshot#write(GraphSource, String)}) simply ask for the edges twice.
+ */
+public interface GraphSource {
+    
+    /**
+     * receives the edges of one pass
+     */
+    interface EdgeVisitor {
+        
+        void edge(int source, int target, int layer, int weight) throws IOException;
+    }
+    
+    String[] getNodeLayerNames();
+    
+    String[] getEdgeLayerNames();
+    
+    int getNodeCount();
+    
+    String getNodeName(int node);
+    
+    int getNodeLayer(int node);
+    
+    /**
+     * Pushes every edge once, identically on every call.
+     */
+    void edges(EdgeVisitor visitor) throws IOException;
+}
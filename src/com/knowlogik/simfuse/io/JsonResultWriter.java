@@ -0,0 +1,59 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DecimalFormat;
+
+/**
+ * Newline delimited JSON, one object per record:
+ * <code>{"trial":0,"tick":3,"total":12.5,...}</code>.
+ */
+public class JsonResultWriter implements ResultWriter {
+    
+    private final Writer out;
+    private final DecimalFormat decFmt = new DecimalFormat("0.####");
+    private final StringBuilder sb = new StringBuilder();
+    private String[] keys;
+    
+    public JsonResultWriter(OutputStream out) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 1 << 16);
+    }
+    
+    @Override
+    public void header(String[] names) {
+        keys = new String[names.length];
+        for (int i = 0; i < names.length; ++i)
+            keys[i] = ",\"" + names[i].replace("\\", "\\\\").replace("\"", "\\\"") + "\":";
+    }
+    
+    @Override
+    public void record(long trial, int tick, double[] values) throws IOException {
+        sb.setLength(0);
+        sb.append("{\"trial\":").append(trial).append(",\"tick\":").append(tick);
+        for (int i = 0; i < values.length; ++i) {
+            sb.append(keys[i]);
+            
+            // JSON has no NaN or infinity
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+                sb.append("null");
+            else
+                sb.append(decFmt.format(values[i]));
+        }
+        sb.append("}\n");
+        
+        out.write(sb.toString());
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
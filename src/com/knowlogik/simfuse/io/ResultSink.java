@@ -0,0 +1,216 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands metric records from simulation threads to a {@link ResultWriter} on a background thread.
+ * 
+ * Records are copied into a fixed pool of preallocated slots and passed through a bounded queue, so
+ * producers never format, never touch I/O and never allocate. The writer thread drains whatever
+ * has queued up in one batch and flushes whenever it catches up. {@link #offer} never blocks and
+ * counts a record as dropped when all slots are in use (for the GUI, where a late line is worth
+ * less than a stalled frame); {@link #put} waits for a slot (for batch runs, where every record
+ * counts).
+ */
+public class ResultSink {
+    
+    private static final class Record {
+        
+        long trial;
+        int tick;
+        final double[] values;
+        
+        Record(int width) {
+            values = new double[width];
+        }
+    }
+    
+    private final ResultWriter writer;
+    private final int width;
+    private final ArrayBlockingQueue<Record> free;
+    private final ArrayBlockingQueue<Record> queue;
+    private final Record end = new Record(0);
+    private final Thread thread;
+    
+    private volatile IOException error = null;
+    private final AtomicLong dropped = new AtomicLong();
+    private boolean closed = false;
+    
+    /**
+     * Writes the header and starts the writer thread.
+     * 
+     * @param capacity
+     *            records that may be in flight at once
+     */
+    public ResultSink(ResultWriter writer, String[] names, int capacity) throws IOException {
+        this.writer = writer;
+        this.width = names.length;
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.queue = new ArrayBlockingQueue<>(capacity + 1);
+        
+        for (int i = 0; i < capacity; ++i)
+            free.add(new Record(width));
+        
+        writer.header(names);
+        
+        thread = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "simfuse-results");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Picks the format from the file extension: .csv, .tsv, .ndjson / .jsonl or anything else as
+     * binary.
+     */
+    public static ResultSink open(String file, String[] names) throws IOException {
+        return new ResultSink(forFile(file), names, 4096);
+    }
+    
+    public static ResultWriter forFile(String file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        
+        if (file.endsWith(".csv"))
+            return new CsvResultWriter(out, ',');
+        if (file.endsWith(".tsv"))
+            return new CsvResultWriter(out, '\t');
+        if (file.endsWith(".ndjson") || file.endsWith(".jsonl"))
+            return new JsonResultWriter(out);
+        
+        return new BinaryResultWriter(out);
+    }
+    
+    /**
+     * Queues a copy of the values without blocking.
+     * 
+     * @return false if the record was dropped because the writer is behind
+     */
+    public boolean offer(long trial, int tick, double[] values) {
+        Record r = free.poll();
+        
+        if (r == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        
+        fill(r, trial, tick, values);
+        queue.add(r);
+        
+        return true;
+    }
+    
+    /**
+     * Queues a copy of the values, waiting for the writer if it is behind.
+     */
+    public void put(long trial, int tick, double[] values) throws InterruptedException {
+        Record r = free.take();
+        
+        fill(r, trial, tick, values);
+        queue.add(r);
+    }
+    
+    private void fill(Record r, long trial, int tick, double[] values) {
+        r.trial = trial;
+        r.tick = tick;
+        System.arraycopy(values, 0, r.values, 0, width);
+    }
+    
+    /** records refused by {@link #offer} so far */
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Writes everything queued so far, stops the writer thread and closes the writer.
+     * 
+     * @throws IOException
+     *             the first error the writer thread ran into, if any
+     */
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        
+        queue.add(end);
+        
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        
+        try {
+            writer.close();
+        }
+        catch (IOException e) {
+            if (error == null)
+                error = e;
+        }
+        
+        if (error != null)
+            throw error;
+    }
+    
+    private void drain() {
+        List<Record> batch = new ArrayList<>();
+        boolean done = false;
+        
+        while (!done) {
+            try {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+            
+            for (Record r : batch) {
+                if (r == end) {
+                    done = true;
+                    continue;
+                }
+                
+                // after a failure keep recycling slots so producers are never stuck
+                if (error == null) {
+                    try {
+                        writer.record(r.trial, r.tick, r.values);
+                    }
+                    catch (IOException e) {
+                        error = e;
+                    }
+                }
+                
+                free.add(r);
+            }
+            batch.clear();
+            
+            if (error == null && (done || queue.isEmpty())) {
+                try {
+                    writer.flush();
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+    }
+}
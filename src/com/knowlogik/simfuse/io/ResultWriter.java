@@ -0,0 +1,20 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Output format for per-tick metric records. Writers are used from a single thread (see
+ * {@link ResultSink}) and need not be thread safe.
+ */
+public interface ResultWriter extends Closeable {
+    
+    /**
+     * called once, before any record
+     */
+    void header(String[] names) throws IOException;
+    
+    void record(long trial, int tick, double[] values) throws IOException;
+    
+    void flush() throws IOException;
+}
@@ -0,0 +1,92 @@
+package com.knowlogik.simfuse.io;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from strings to non-negative ints, without boxing or per-entry objects.
+ */
+public class StringIntMap {
+    
+    private String[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+    
+    public StringIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return value for key, or -1 if absent
+     */
+    public int get(String key) {
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            String k = keys[i];
+            
+            if (k == null)
+                return -1;
+            if (k.equals(key))
+                return values[i];
+        }
+    }
+    
+    /**
+     * @return previous value for key, or -1 if it was absent
+     */
+    public int put(String key, int value) {
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            String k = keys[i];
+            
+            if (k == null) {
+                keys[i] = key;
+                values[i] = value;
+                
+                if (++size * 2 > keys.length)
+                    rehash();
+                
+                return -1;
+            }
+            
+            if (k.equals(key)) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+    }
+    
+    private int slot(String key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldKeys[j] == null)
+                continue;
+            
+            int i = slot(oldKeys[j]);
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+        
+        Arrays.fill(oldKeys, null);
+    }
+}
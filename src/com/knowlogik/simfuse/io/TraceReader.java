@@ -0,0 +1,184 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeTrace;
+
+/**
+ * Reads a trace file written by {@link TraceWriter}.
+ * 
+ * Opening only walks the block headers to index the trials; a trial's failures are read when it is
+ * asked for, so a file of many long trials opens quickly and a viewer only holds the trial it
+ * shows. A block cut short at the end of the file is ignored.
+ */
+public class TraceReader {
+    
+    private static final int HEADER_SIZE = 20;
+    private static final int BLOCK_HEADER_SIZE = 20;
+    
+    private final String file;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final int nodeCount;
+    private final int edgeCount;
+    
+    // trial id and file offset per block, in file order
+    private long[] trials = new long[64];
+    private long[] offsets = new long[64];
+    private int count = 0;
+    
+    private TraceReader(String file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.ch = raf.getChannel();
+        
+        try {
+            ByteBuffer header = read(0, HEADER_SIZE);
+            byte[] magic = new byte[TraceWriter.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, TraceWriter.MAGIC))
+                throw new IOException(file + " is not a cascade trace");
+            
+            int version = header.getInt();
+            if (version != TraceWriter.VERSION)
+                throw new IOException(file + ": unsupported trace version " + version);
+            
+            nodeCount = header.getInt();
+            edgeCount = header.getInt();
+            
+            index();
+        }
+        catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+    
+    public static TraceReader open(String file) throws IOException {
+        return new TraceReader(file);
+    }
+    
+    /** true if the traces were recorded on a graph of this size */
+    public boolean fits(CascadeGraph graph) {
+        return graph.getNodeCount() == nodeCount && graph.getEdgeCount() == edgeCount;
+    }
+    
+    public int getTrialCount() {
+        return count;
+    }
+    
+    /** id of the i-th trial in the file */
+    public long getTrial(int i) {
+        if (i >= count)
+            throw new IndexOutOfBoundsException(i + " >= " + count);
+        
+        return trials[i];
+    }
+    
+    /**
+     * @return position of a trial id in the file, or -1
+     */
+    public int find(long trial) {
+        for (int i = 0; i < count; ++i) {
+            if (trials[i] == trial)
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    /** reads the i-th trial in the file */
+    public CascadeTrace read(int i) throws IOException {
+        if (i >= count)
+            throw new IndexOutOfBoundsException(i + " >= " + count);
+        
+        ByteBuffer header = read(offsets[i], BLOCK_HEADER_SIZE);
+        long trial = header.getLong();
+        int firstTick = header.getInt();
+        int ticks = header.getInt();
+        int failures = header.getInt();
+        
+        ByteBuffer body = read(offsets[i] + BLOCK_HEADER_SIZE, (int) bodySize(ticks, failures));
+        
+        int[] ends = new int[ticks];
+        for (int t = 0; t < ticks; ++t)
+            ends[t] = body.getInt();
+        
+        int[] nodes = new int[failures];
+        int[] sources = new int[failures];
+        byte[] layers = new byte[failures];
+        byte[] sourceLayers = new byte[failures];
+        
+        for (int f = 0; f < failures; ++f) {
+            nodes[f] = body.getInt();
+            sources[f] = body.getInt();
+            layers[f] = body.get();
+            sourceLayers[f] = body.get();
+        }
+        
+        try {
+            return new CascadeTrace(nodeCount, edgeCount, trial, firstTick, ends, nodes, sources, layers, sourceLayers);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+    
+    public void close() throws IOException {
+        raf.close();
+    }
+    
+    /** finds every complete block */
+    private void index() throws IOException {
+        long size = ch.size();
+        long at = HEADER_SIZE;
+        
+        while (at + BLOCK_HEADER_SIZE <= size) {
+            ByteBuffer header = read(at, BLOCK_HEADER_SIZE);
+            long trial = header.getLong();
+            header.getInt();
+            int ticks = header.getInt();
+            int failures = header.getInt();
+            
+            if (ticks <= 0 || failures < 0 || failures > nodeCount)
+                throw new IOException(file + ": trace is corrupt at byte " + at);
+            
+            long end = at + BLOCK_HEADER_SIZE + bodySize(ticks, failures);
+            if (end > size)
+                break;
+            
+            if (count == trials.length) {
+                trials = Arrays.copyOf(trials, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            
+            trials[count] = trial;
+            offsets[count++] = at;
+            at = end;
+        }
+    }
+    
+    private static long bodySize(int ticks, int failures) {
+        return 4L * ticks + 10L * failures;
+    }
+    
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0)
+                throw new EOFException(file + ": trace is truncated");
+        }
+        
+        buf.flip();
+        
+        return buf;
+    }
+}
@@ -0,0 +1,103 @@
+package com.knowlogik.simfuse.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import com.knowlogik.simfuse.engine.CascadeGraph;
+import com.knowlogik.simfuse.engine.CascadeTrace;
+
+/**
+ * Appends {@link CascadeTrace}s to a file, one block per trial, in whatever order trials finish.
+ * 
+ * <pre>
+ * header  magic "SIMFUSET", int version, int nodes, int edges
+ * trial   long trial, int first tick, int ticks, int failures,
+ *         int per tick: failures by its end, first tick first,
+ *         per failure: int node, int source (-1 if none), byte layer, byte source layer
+ * </pre>
+ * 
+ * Little endian, like the other binary formats. There is no size field: a block's 20 byte header
+ * gives its tick and failure counts, so it is 4 bytes per tick and 10 per failure long after that.
+ * {@link TraceReader} finds trials by skipping from header to header this way, and a file cut
+ * short only loses its last trial. Workers may write concurrently.
+ */
+public class TraceWriter {
+    
+    static final byte[] MAGIC = "SIMFUSET".getBytes(Charset.forName("US-ASCII"));
+    static final int VERSION = 1;
+    
+    private final OutputStream out;
+    private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final int nodeCount;
+    private final int edgeCount;
+    private long trials = 0;
+    
+    public TraceWriter(String file, CascadeGraph graph) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        this.nodeCount = graph.getNodeCount();
+        this.edgeCount = graph.getEdgeCount();
+        
+        buf.put(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(nodeCount);
+        buf.putInt(edgeCount);
+    }
+    
+    public synchronized void write(CascadeTrace trace) throws IOException {
+        if (trace.getNodeCount() != nodeCount || trace.getEdgeCount() != edgeCount)
+            throw new IllegalArgumentException("trace is for a different graph");
+        
+        int ticks = trace.getLastTick() - trace.getFirstTick() + 1;
+        int count = trace.getFailedCount();
+        
+        ensure(20);
+        buf.putLong(trace.getTrial());
+        buf.putInt(trace.getFirstTick());
+        buf.putInt(ticks);
+        buf.putInt(count);
+        
+        for (int t = trace.getFirstTick(); t <= trace.getLastTick(); ++t) {
+            ensure(4);
+            buf.putInt(trace.getFailedCount(t));
+        }
+        
+        for (int i = 0; i < count; ++i) {
+            ensure(10);
+            buf.putInt(trace.getNode(i));
+            buf.putInt(trace.getSource(i));
+            buf.put((byte) trace.getLayer(i));
+            buf.put((byte) trace.getSourceLayer(i));
+        }
+        
+        trials++;
+    }
+    
+    /** number of trials written so far */
+    public synchronized long getTrialCount() {
+        return trials;
+    }
+    
+    public synchronized void close() throws IOException {
+        try {
+            drain();
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() < bytes)
+            drain();
+    }
+    
+    private void drain() throws IOException {
+        out.write(buf.array(), 0, buf.position());
+        buf.clear();
+    }
+}